@@ -0,0 +1,131 @@
+package com.peng.minidb.backend.bench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.peng.minidb.backend.dm.page.Page;
+import com.peng.minidb.backend.dm.page.PageX;
+import com.peng.minidb.backend.dm.pageCache.PageCache;
+import com.peng.minidb.backend.vm.IsolationLevel;
+import com.peng.minidb.backend.vm.LockTable;
+import com.peng.minidb.backend.vm.Transaction;
+
+/**
+ * 热路径内存分配基准
+ * 统计缓存命中、加锁解锁、创建快照与快照判断每次操作在当前线程上分配的字节数
+ *
+ * 用法：AllocationBench [临时目录]
+ */
+public class AllocationBench {
+
+    private static final int WARMUP = 200_000;
+    private static final int ROUNDS = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        String dir = args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir");
+        String path = dir + File.separator + "alloc_bench_" + System.nanoTime();
+
+        benchPageCache(path);
+        benchPageMiss(path);
+        benchColdFill(path);
+        benchLockTable();
+        benchSnapshot();
+
+        new File(path + ".db").delete();
+        System.exit(0);
+    }
+
+    // 常驻页面的 getPage/release
+    private static void benchPageCache(String path) throws Exception {
+        PageCache pc = PageCache.create(path, 512 * PageCache.PAGE_SIZE);
+        int pages = 256;
+        for (int i = 0; i < pages; i ++) {
+            pc.newPage(PageX.initRaw());
+        }
+        Op op = i -> {
+            Page pg = pc.getPage(1 + (int)(i % pages));
+            pg.release();
+        };
+        report("page cache hit (get + release)", op);
+        pc.close();
+    }
+
+    // 缓存只有 16 页，循环访问 256 页，每次都未命中并驱逐一页
+    private static void benchPageMiss(String path) throws Exception {
+        PageCache pc = PageCache.open(path, 16 * PageCache.PAGE_SIZE);
+        int pages = 256;
+        Op op = i -> {
+            Page pg = pc.getPage(1 + (int)(i % pages));
+            pg.release();
+        };
+        report("page cache miss (get + release)", op);
+        pc.close();
+    }
+
+    // 刚打开的缓存容纳全部 256 页，跳跃访问每页一次，缓存从空到满，不触发顺序预读
+    private static void benchColdFill(String path) throws Exception {
+        PageCache pc = PageCache.open(path, 256 * PageCache.PAGE_SIZE);
+        int pages = 256;
+        long before = allocatedBytes();
+        for (int i = 0; i < pages; i ++) {
+            Page pg = pc.getPage(1 + (i * 97) % pages);
+            pg.release();
+        }
+        long bytes = allocatedBytes() - before;
+        System.out.printf("%-34s %10.1f B/op%n", "page cache cold fill (get + release)", (double)bytes / pages);
+        pc.close();
+    }
+
+    // 无冲突地获取并释放行锁，每个事务持有 8 个资源
+    private static void benchLockTable() throws Exception {
+        LockTable lt = new LockTable();
+        Op op = i -> {
+            long xid = 1 + i / 8;
+            lt.add(xid, 1 + i);
+            if(i % 8 == 7) {
+                lt.remove(xid);
+            }
+        };
+        report("lock table (add, remove per 8)", op);
+    }
+
+    // 100 个活跃事务下创建可重复读快照，并做 16 次可见性判断
+    private static void benchSnapshot() throws Exception {
+        NavigableMap<Long, Transaction> active = new ConcurrentSkipListMap<>();
+        for (long x = 1; x <= 100; x ++) {
+            active.put(x, Transaction.newTransaction(x, IsolationLevel.READ_COMMITTED, active));
+        }
+        Op op = i -> {
+            Transaction t = Transaction.newTransaction(1000 + i, IsolationLevel.REPEATABLE_READ, active);
+            for (long x = 90; x < 106; x ++) {
+                t.isInSnapshot(x);
+            }
+        };
+        report("snapshot (begin + 16 checks)", op);
+    }
+
+    private interface Op {
+        void run(long i) throws Exception;
+    }
+
+    private static void report(String name, Op op) throws Exception {
+        for (long i = 0; i < WARMUP; i ++) {
+            op.run(i);
+        }
+        long before = allocatedBytes();
+        long start = System.nanoTime();
+        for (long i = WARMUP; i < WARMUP + ROUNDS; i ++) {
+            op.run(i);
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = allocatedBytes() - before;
+        System.out.printf("%-34s %10.1f B/op %10.1f ns/op%n", name, (double)bytes / ROUNDS, (double)nanos / ROUNDS);
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
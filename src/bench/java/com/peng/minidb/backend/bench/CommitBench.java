@@ -0,0 +1,93 @@
+package com.peng.minidb.backend.bench;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.peng.minidb.backend.dm.DataManager;
+import com.peng.minidb.backend.tm.TransactionManager;
+import com.peng.minidb.backend.vm.IsolationLevel;
+import com.peng.minidb.backend.vm.VersionManager;
+import com.peng.minidb.backend.utils.Panic;
+import com.peng.minidb.backend.vm.VersionManagerImpl;
+
+/**
+ * 小事务提交吞吐基准
+ * 每个事务插入一条记录后提交，统计不同线程数下每秒提交的事务数，以及平均每次日志 fsync 覆盖的事务数
+ *
+ * 用法：CommitBench [临时目录]
+ */
+public class CommitBench {
+
+    private static final long MEM = (1 << 20) * 16;
+    private static final long DURATION_MS = 2000;
+    private static final int[] THREADS = { 1, 2, 4, 8, 16 };
+
+    public static void main(String[] args) throws Exception {
+        String dir = args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir");
+        String path = dir + File.separator + "commit_bench_" + System.nanoTime();
+
+        TransactionManager tm = TransactionManager.create(path);
+        DataManager dm = DataManager.create(path, MEM, tm);
+        VersionManager vm = new VersionManagerImpl(tm, dm);
+        byte[] row = new byte[64];
+
+        double base = 0;
+        for (int threads : THREADS) {
+            long syncs = syncs(dm);
+            long start = System.nanoTime();
+            long commits = run(vm, row, threads);
+            double ops = commits * 1e9 / (System.nanoTime() - start);
+            if(threads == 1) {
+                base = ops;
+            }
+            System.out.printf("%2d threads %10.0f commits/s  x%.2f  %.1f commits/fsync%n",
+                    threads, ops, ops / base, (double)commits / Math.max(1, syncs(dm) - syncs));
+        }
+
+        dm.close();
+        tm.close();
+        // 数据文件、事务文件、日志清单和日志段
+        File db = new File(path);
+        for (File f : db.getParentFile().listFiles((d, name) -> name.startsWith(db.getName() + "."))) {
+            f.delete();
+        }
+        System.exit(0);
+    }
+
+    private static long run(VersionManager vm, byte[] row, int threads) throws Exception {
+        AtomicLong total = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long deadline = System.nanoTime() + DURATION_MS * 1_000_000;
+        for (int t = 0; t < threads; t ++) {
+            new Thread(() -> {
+                long n = 0;
+                try {
+                    start.await();
+                    while(System.nanoTime() < deadline) {
+                        long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+                        vm.insert(xid, row);
+                        vm.commit(xid);
+                        n ++;
+                    }
+                } catch (Exception e) {
+                    Panic.panic(e);
+                }
+                total.addAndGet(n);
+                done.countDown();
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        return total.get();
+    }
+
+    private static long syncs(DataManager dm) {
+        Map<String, Object> status = new HashMap<>();
+        dm.status(status);
+        return (Long)status.get("log.syncs");
+    }
+}
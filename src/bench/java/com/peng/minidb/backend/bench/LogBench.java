@@ -0,0 +1,107 @@
+package com.peng.minidb.backend.bench;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.peng.minidb.backend.dm.DataManager;
+import com.peng.minidb.backend.server.Executor;
+import com.peng.minidb.backend.tbm.TableManager;
+import com.peng.minidb.backend.tm.TransactionManager;
+import com.peng.minidb.backend.vm.VersionManager;
+import com.peng.minidb.backend.vm.VersionManagerImpl;
+
+/**
+ * 批量插入的日志量基准
+ * 向只有一个宽字符串字段的表批量插入，统计每行写入的日志字节数和每秒插入的行数
+ * 文本由常见单词随机组成，可以被压缩；随机字符几乎无法压缩，日志量接近未压缩时的大小
+ *
+ * 用法：LogBench [临时目录]
+ */
+public class LogBench {
+
+    private static final long MEM = (1 << 20) * 64;
+    private static final int ROWS = 5000;
+    private static final int ROWS_PER_TX = 500;
+    private static final int ROW_CHARS = 1000;
+    private static final String[] WORDS = {
+        "order", "customer", "shipped", "pending", "invoice", "payment", "address", "street",
+        "the", "of", "and", "to", "with", "for", "express", "delivery", "warehouse", "returned"
+    };
+
+    public static void main(String[] args) throws Exception {
+        String dir = args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir");
+
+        System.out.printf("%-8s %10s %14s %10s%n", "data", "row bytes", "log bytes/row", "rows/s");
+        run(dir, "text", false);
+        run(dir, "random", true);
+        System.exit(0);
+    }
+
+    private static void run(String dir, String name, boolean random) throws Exception {
+        String path = dir + File.separator + "log_bench_" + System.nanoTime();
+        TransactionManager tm = TransactionManager.create(path);
+        DataManager dm = DataManager.create(path, MEM, tm);
+        VersionManager vm = new VersionManagerImpl(tm, dm);
+        TableManager tbm = TableManager.create(path, vm, dm);
+        Executor exe = new Executor(tbm);
+        execute(exe, "create table w (id int, body string, primary key(id))");
+
+        Random rnd = new Random(42);
+        String[] rows = new String[ROWS];
+        for (int i = 0; i < ROWS; i ++) {
+            rows[i] = random ? randomChars(rnd) : randomText(rnd);
+        }
+
+        long logBytes = logBytes(dm);
+        long start = System.nanoTime();
+        for (int i = 0; i < ROWS; i ++) {
+            if(i % ROWS_PER_TX == 0) {
+                execute(exe, "begin");
+            }
+            execute(exe, "insert into w values (" + i + ", '" + rows[i] + "')");
+            if(i % ROWS_PER_TX == ROWS_PER_TX - 1) {
+                execute(exe, "commit");
+            }
+        }
+        double ops = ROWS * 1e9 / (System.nanoTime() - start);
+        System.out.printf("%-8s %10d %14.1f %10.0f%n",
+                name, ROW_CHARS, (double)(logBytes(dm) - logBytes) / ROWS, ops);
+
+        exe.close();
+        dm.close();
+        tm.close();
+        File db = new File(path);
+        for (File f : db.getParentFile().listFiles((d, n) -> n.startsWith(db.getName() + "."))) {
+            f.delete();
+        }
+    }
+
+    private static void execute(Executor exe, String sql) throws Exception {
+        exe.execute(sql.getBytes());
+    }
+
+    private static String randomText(Random rnd) {
+        StringBuilder sb = new StringBuilder();
+        while(sb.length() < ROW_CHARS) {
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]).append('_');
+        }
+        return sb.substring(0, ROW_CHARS);
+    }
+
+    private static String randomChars(Random rnd) {
+        String chars = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ROW_CHARS; i ++) {
+            sb.append(chars.charAt(rnd.nextInt(chars.length())));
+        }
+        return sb.toString();
+    }
+
+    private static long logBytes(DataManager dm) {
+        Map<String, Object> status = new HashMap<>();
+        dm.status(status);
+        return (Long)status.get("log.bytes");
+    }
+}
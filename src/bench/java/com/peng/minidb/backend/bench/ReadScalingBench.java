@@ -0,0 +1,82 @@
+package com.peng.minidb.backend.bench;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.peng.minidb.backend.dm.page.Page;
+import com.peng.minidb.backend.dm.page.PageX;
+import com.peng.minidb.backend.dm.pageCache.PageCache;
+import com.peng.minidb.backend.utils.Panic;
+
+/**
+ * 页面读取并发基准
+ * 缓存远小于数据文件，随机读几乎都是未命中，统计不同线程数下每秒读取的页面数
+ * 文件内容在操作系统页缓存中，结果反映的是读路径本身的并发能力
+ *
+ * 用法：ReadScalingBench [临时目录]
+ */
+public class ReadScalingBench {
+
+    private static final int PAGES = 4096;             // 32MB 数据文件
+    private static final int CACHE_PAGES = 64;
+    private static final long DURATION_MS = 2000;
+    private static final int[] THREADS = { 1, 2, 4, 8, 16 };
+
+    public static void main(String[] args) throws Exception {
+        String dir = args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir");
+        String path = dir + File.separator + "read_bench_" + System.nanoTime();
+
+        PageCache pc = PageCache.create(path, (long)CACHE_PAGES * PageCache.PAGE_SIZE);
+        for (int i = 0; i < PAGES; i ++) {
+            pc.newPage(PageX.initRaw());
+        }
+        pc.close();
+
+        for (boolean mapped : new boolean[] { false, true }) {
+            pc = PageCache.open(path, (long)CACHE_PAGES * PageCache.PAGE_SIZE, mapped);
+            System.out.println(mapped ? "mapped:" : "buffered:");
+            double base = 0;
+            for (int threads : THREADS) {
+                double ops = run(pc, threads);
+                if(threads == 1) {
+                    base = ops;
+                }
+                System.out.printf("  %2d threads %12.0f pages/s  x%.2f%n", threads, ops, ops / base);
+            }
+            pc.close();
+        }
+
+        new File(path + ".db").delete();
+        System.exit(0);
+    }
+
+    private static double run(PageCache pc, int threads) throws Exception {
+        AtomicLong total = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long deadline = System.nanoTime() + DURATION_MS * 1_000_000;
+        for (int t = 0; t < threads; t ++) {
+            new Thread(() -> {
+                long n = 0;
+                try {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while(System.nanoTime() < deadline) {
+                        Page pg = pc.getPage(1 + random.nextInt(PAGES));
+                        pg.release();
+                        n ++;
+                    }
+                } catch (Exception e) {
+                    Panic.panic(e);
+                }
+                total.addAndGet(n);
+                done.countDown();
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        return total.get() * 1000.0 / DURATION_MS;
+    }
+}
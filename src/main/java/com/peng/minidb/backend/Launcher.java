@@ -8,6 +8,7 @@ import org.apache.commons.cli.ParseException;
 
 import com.peng.minidb.backend.dm.DataManager;
 import com.peng.minidb.backend.server.Server;
+import com.peng.minidb.backend.server.Status;
 import com.peng.minidb.backend.tbm.TableManager;
 import com.peng.minidb.backend.tm.TransactionManager;
 import com.peng.minidb.backend.utils.Panic;
@@ -30,11 +31,12 @@ public class Launcher {
         options.addOption("open", true, "-open D:/");
         options.addOption("create", true, "-create DBPath");
         options.addOption("mem", true, "-mem 64MB");
+        options.addOption("mmap", false, "-mmap");
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = parser.parse(options, args);
 
         if (cmd.hasOption("open")) {
-            openDB(cmd.getOptionValue("open"), parseMem(cmd.getOptionValue("mem")));
+            openDB(cmd.getOptionValue("open"), parseMem(cmd.getOptionValue("mem")), cmd.hasOption("mmap"));
             return;
         }
         if (cmd.hasOption("create")) {
@@ -64,16 +66,20 @@ public class Launcher {
 
     /**
      * 启动已有的数据库
+     *
+     * @param mapped 是否以内存映射方式读取数据文件
      */
-    private static void openDB(String path, long mem) {
+    private static void openDB(String path, long mem, boolean mapped) {
         // 打开事务管理器
         TransactionManager tm = TransactionManager.open(path);
-        // 打开数据管理器，传入路径、内存大小和事务管理器
-        DataManager dm = DataManager.open(path, mem, tm);
+        // 打开数据管理器，传入路径、内存大小、事务管理器和读取方式
+        DataManager dm = DataManager.open(path, mem, tm, mapped);
         // 创建版本管理器，传入事务管理器和数据管理器
         VersionManager vm = new VersionManagerImpl(tm, dm);
         // 打开表管理器，传入路径、版本管理器和数据管理器
         TableManager tbm = TableManager.open(path, vm, dm);
+        // 注册 JMX 统计
+        new Status(tbm).register();
         // 创建服务器对象，并启动服务器
         new Server(port, tbm).start();
     }
@@ -1,129 +1,534 @@
 package com.peng.minidb.backend.common;
 
-import java.util.HashMap;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
-
-import com.peng.minidb.common.Error;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * AbstractCache 实现了一个引用计数策略的缓存
+ * 有容量上限时，引用计数归零的资源仍然留在缓存中，缓存满时由置换策略选出未被引用的资源驱逐；
+ * 所有资源都被引用时，获取资源的线程阻塞等待，直到有资源被释放
+ * 没有容量上限时，引用计数归零即写回并移出缓存
+ *
+ * 缓存按 key 的哈希分为多个段，每段有自己的锁，只在加入和摘除资源时短暂地加写锁；
+ * 命中时只需乐观读查找并原子地增加引用计数
+ * 写回可能阻塞在 I/O 上，不持有段锁：资源先将引用计数置为 -1，写回后才从段中摘除，
+ * 期间请求它的线程等待移出完成后重新加载，同一段的其他资源不受影响
+ * 多个线程同时请求同一个未缓存的资源时，只有一个线程加载，其余线程等待其加载完成
  */
 public abstract class AbstractCache<T> {
-    private HashMap<Long, T> cache;                     // 实际缓存的数据
-    private HashMap<Long, Integer> references;          // 元素的引用个数
-    private HashMap<Long, Boolean> getting;             // 正在获取某资源的线程
+
+    private static final int SEGMENT_SHIFT = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_SHIFT;
+
+    // 缓存中的一个资源
+    private static class Holder<T> {
+        final long key;
+        final CompletableFuture<T> future;      // 资源加载完成的信号
+        final AtomicInteger pins;               // 引用计数，-1 表示已失效、正在被移出缓存
+        boolean removed;                        // 是否已从段中移除
+
+        Holder(long key) {
+            this.key = key;
+            this.future = new CompletableFuture<>();
+            this.pins = new AtomicInteger(1);
+        }
+
+        boolean tryPin() {
+            while(true) {
+                int p = pins.get();
+                if(p < 0) {
+                    return false;
+                }
+                if(pins.compareAndSet(p, p + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        synchronized void markRemoved() {
+            removed = true;
+            notifyAll();
+        }
+
+        synchronized void awaitRemoved() {
+            while(!removed) {
+                try {
+                    wait();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+    }
+
+    private static class Segment<T> {
+        final LongObjectMap<Holder<T>> map = new LongObjectMap<>();
+        final StampedLock lock = new StampedLock();
+    }
+
+    private Segment<T>[] segments;
 
     private int maxResource;                            // 缓存的最大缓存资源数
-    private int count = 0;                              // 缓存中元素的个数
-    private Lock lock;
+    private AtomicInteger count;                        // 缓存中元素的个数
+    private ReplacementPolicy policy;                   // 置换策略，无容量上限时为null
+    private Lock policyLock;
+
+    private CacheStats stats;
+
+    private Lock waitLock;
+    private Condition notFull;                          // 有资源的引用计数归零
+    private AtomicInteger waiters;                      // 等待空位的线程数
+    private AtomicInteger freed;                        // 资源引用计数归零或位置被归还的次数
 
     public AbstractCache(int maxResource) {
+        this(maxResource, maxResource > 0 ? ReplacementPolicy.clock(maxResource) : null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public AbstractCache(int maxResource, ReplacementPolicy policy) {
         this.maxResource = maxResource;
-        cache = new HashMap<>();
-        references = new HashMap<>();
-        getting = new HashMap<>();
-        lock = new ReentrantLock();
+        this.policy = policy;
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i ++) {
+            segments[i] = new Segment<>();
+        }
+        count = new AtomicInteger(0);
+        policyLock = new ReentrantLock();
+        stats = new CacheStats();
+        waitLock = new ReentrantLock();
+        notFull = waitLock.newCondition();
+        waiters = new AtomicInteger(0);
+        freed = new AtomicInteger(0);
     }
 
     protected T get(long key) throws Exception {
-        while(true) {
-            lock.lock();
-            if(getting.containsKey(key)) {
-                // 请求的资源正在被其他线程获取
-                lock.unlock();
-                try {
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    continue;
-                }
-                continue;
-            }
+        Segment<T> seg = segmentFor(key);
 
-            if(cache.containsKey(key)) {
-                // 资源在缓存中，直接返回
-                T obj = cache.get(key);
-                references.put(key, references.get(key) + 1);
-                lock.unlock();
-                return obj;
-            }
+        // 资源在缓存中，直接返回
+        Holder<T> h = lookup(seg, key);
+        if(h != null && h.tryPin()) {
+            stats.hit();
+            recordAccess(key);
+            return await(h);
+        }
 
-            // 尝试获取该资源
-            if(maxResource > 0 && count == maxResource) {
-                lock.unlock();
-                throw Error.CacheFullException;
+        boolean loader = false;
+        while(true) {
+            long stamp = seg.lock.writeLock();
+            h = seg.map.get(key);
+            if(h == null) {
+                h = new Holder<>(key);
+                seg.map.put(key, h);
+                loader = true;
+                seg.lock.unlockWrite(stamp);
+                break;
+            }
+            if(h.tryPin()) {
+                // 资源正在被其他线程获取，或刚刚被加载完成
+                seg.lock.unlockWrite(stamp);
+                break;
             }
-            count ++;
-            getting.put(key, true);
-            lock.unlock();
-            break;
+            // 资源正在被移出缓存，等待移出完成后重新获取
+            seg.lock.unlockWrite(stamp);
+            h.awaitRemoved();
+        }
+        if(!loader) {
+            stats.hit();
+            recordAccess(key);
+            return await(h);
         }
 
+        // 尝试获取该资源
+        long start = System.nanoTime();
+        reserve();
         T obj = null;
         try {
             obj = getForCache(key);
+            stats.miss(System.nanoTime() - start);
         } catch(Exception e) {
-            lock.lock();
-            count --;
-            getting.remove(key);
-            lock.unlock();
+            long stamp = seg.lock.writeLock();
+            removeHolder(seg, h);
+            seg.lock.unlockWrite(stamp);
+            h.markRemoved();
+            h.future.completeExceptionally(e);
+            count.decrementAndGet();
+            signalFreed();
             throw e;
         }
 
-        lock.lock();
-        getting.remove(key);
-        cache.put(key, obj);
-        references.put(key, 1);
-        lock.unlock();
-        
+        if(policy != null) {
+            policyLock.lock();
+            policy.admit(key);
+            policyLock.unlock();
+        }
+        h.future.complete(obj);
         return obj;
     }
 
+    // 乐观读查找资源，期间段被修改则退化为加读锁查找
+    private Holder<T> lookup(Segment<T> seg, long key) {
+        long stamp = seg.lock.tryOptimisticRead();
+        Holder<T> h = seg.map.get(key);
+        if(seg.lock.validate(stamp)) {
+            return h;
+        }
+        stamp = seg.lock.readLock();
+        try {
+            return seg.map.get(key);
+        } finally {
+            seg.lock.unlockRead(stamp);
+        }
+    }
+
+    // 调用时需持有段的写锁
+    private void removeHolder(Segment<T> seg, Holder<T> h) {
+        if(seg.map.get(h.key) == h) {
+            seg.map.remove(h.key);
+        }
+    }
+
+    // 等待资源加载完成
+    private T await(Holder<T> h) throws Exception {
+        try {
+            return h.future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof Exception) {
+                throw (Exception)cause;
+            }
+            throw e;
+        }
+    }
+
+    // 命中时记录访问，置换策略正忙则放弃本次记录，命中路径不等待
+    private void recordAccess(long key) {
+        if(policy != null && policyLock.tryLock()) {
+            try {
+                policy.access(key);
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    // 为即将加载的资源预留一个位置，缓存满时驱逐或等待
+    private void reserve() {
+        if(maxResource <= 0) {
+            count.incrementAndGet();
+            return;
+        }
+        while(true) {
+            int c = count.get();
+            if(c < maxResource) {
+                if(count.compareAndSet(c, c + 1)) {
+                    return;
+                }
+                continue;
+            }
+            int seen = freed.get();
+            if(evictOne()) {
+                continue;
+            }
+            // 所有资源都被引用，等待释放后重试
+            waitLock.lock();
+            try {
+                waiters.incrementAndGet();
+                if(freed.get() == seen) {
+                    notFull.awaitUninterruptibly();
+                }
+            } finally {
+                waiters.decrementAndGet();
+                waitLock.unlock();
+            }
+        }
+    }
+
+    // 通知等待空位的线程
+    private void signalFreed() {
+        freed.incrementAndGet();
+        if(waiters.get() > 0) {
+            waitLock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 由置换策略选出一个未被引用的资源，写回并移出缓存
+     */
+    private boolean evictOne() {
+        long victim;
+        policyLock.lock();
+        try {
+            // 选中的同时将引用计数从0置为-1，之后任何线程都无法再引用它
+            victim = policy.victim(k -> {
+                Holder<T> vh = lookup(segmentFor(k), k);
+                return vh != null && vh.pins.compareAndSet(0, -1);
+            });
+            if(victim == ReplacementPolicy.NO_VICTIM) {
+                return false;
+            }
+            policy.remove(victim);
+        } finally {
+            policyLock.unlock();
+        }
+        removeEvicted(victim);
+        return true;
+    }
+
+    /**
+     * 驱逐指定的资源，资源不在缓存中、正在加载或正被引用时不驱逐，返回 false
+     */
+    protected boolean evict(long key) {
+        if(policy == null) {
+            return false;
+        }
+        policyLock.lock();
+        try {
+            Holder<T> h = lookup(segmentFor(key), key);
+            // 引用计数为0说明已加载完成并被策略接纳
+            if(h == null || !h.pins.compareAndSet(0, -1)) {
+                return false;
+            }
+            policy.remove(key);
+        } finally {
+            policyLock.unlock();
+        }
+        removeEvicted(key);
+        signalFreed();
+        return true;
+    }
+
+    // 写回引用计数已被置为-1的资源，并移出缓存
+    private void removeEvicted(long key) {
+        Segment<T> seg = segmentFor(key);
+        unload(seg, lookup(seg, key));
+        stats.evicted();
+    }
+
+    // 写回引用计数已被置为-1的资源，再从段中摘除；写回时不持有段锁
+    private void unload(Segment<T> seg, Holder<T> h) {
+        releaseForCache(h.future.join());
+        long stamp = seg.lock.writeLock();
+        try {
+            removeHolder(seg, h);
+        } finally {
+            seg.lock.unlockWrite(stamp);
+        }
+        h.markRemoved();
+        count.decrementAndGet();
+    }
+
     /**
      * 强行释放一个缓存
      */
     protected void release(long key) {
-        lock.lock();
-        try {
-            // 检查 references 中是否包含该 key
-            if (!references.containsKey(key)) {
-                // 如果 references 中不包含该 key，直接返回，不进行释放
+        Segment<T> seg = segmentFor(key);
+        Holder<T> h = lookup(seg, key);
+        if(h == null) {
+            // 缓存中不包含该 key，直接返回，不进行释放
+            return;
+        }
+        int ref;
+        while(true) {
+            int p = h.pins.get();
+            if(p <= 0) {
                 return;
             }
+            if(h.pins.compareAndSet(p, p - 1)) {
+                ref = p - 1;
+                break;
+            }
+        }
+        if(ref != 0) {
+            return;
+        }
+
+        if(policy != null) {
+            // 有容量上限，资源留在缓存中等待被驱逐
+            signalFreed();
+            return;
+        }
+
+        if(!h.pins.compareAndSet(0, -1)) {
+            // 释放期间又被其他线程引用
+            return;
+        }
+        unload(seg, h);
+    }
+
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * 缓存中的资源数，包括正在加载的
+     */
+    public int getResidentCount() {
+        return count.get();
+    }
+
+    /**
+     * 缓存容量，没有上限时为0
+     */
+    public int getCapacity() {
+        return maxResource;
+    }
 
-            int ref = references.get(key)-1;
-            if(ref == 0) {
-                T obj = cache.get(key);
-                releaseForCache(obj);
-                references.remove(key);
-                cache.remove(key);
-                count --;
-            } else {
-                references.put(key, ref);
+    /**
+     * 正被引用的资源数，遍历所有段，只用于统计
+     */
+    public int getPinnedCount() {
+        int[] n = new int[1];
+        forEachLoaded((key, h) -> {
+            if(h.pins.get() > 0) {
+                n[0] ++;
+            }
+        });
+        return n[0];
+    }
+
+    /**
+     * 统计已加载且满足条件的资源数，遍历所有段，只用于统计
+     */
+    protected int countCached(Predicate<T> p) {
+        int[] n = new int[1];
+        forEachLoaded((key, h) -> {
+            if(h.pins.get() >= 0 && p.test(h.future.join())) {
+                n[0] ++;
+            }
+        });
+        return n[0];
+    }
+
+    /**
+     * 对已加载的资源逐个调用 action，期间引用该资源，资源不会被并发写回或移出缓存
+     * 正在移出的资源不调用 action，等待它写回完成后再返回
+     */
+    protected void forEachCached(Consumer<T> action) {
+        for (Segment<T> seg : segments) {
+            List<Holder<T>> pinned = new ArrayList<>();
+            List<Holder<T>> leaving = new ArrayList<>();
+            long stamp = seg.lock.readLock();
+            try {
+                seg.map.forEach((key, h) -> {
+                    if(!h.future.isDone() || h.future.isCompletedExceptionally()) {
+                        return;
+                    }
+                    if(h.tryPin()) {
+                        pinned.add(h);
+                    } else {
+                        leaving.add(h);
+                    }
+                });
+            } finally {
+                seg.lock.unlockRead(stamp);
+            }
+            for (Holder<T> h : leaving) {
+                h.awaitRemoved();
+            }
+            for (Holder<T> h : pinned) {
+                try {
+                    action.accept(h.future.join());
+                } finally {
+                    release(h.key);
+                }
+            }
+        }
+    }
+
+    private void forEachLoaded(LongObjectMap.Visitor<Holder<T>> visitor) {
+        for (Segment<T> seg : segments) {
+            long stamp = seg.lock.readLock();
+            try {
+                seg.map.forEach((key, h) -> {
+                    if(h.future.isDone() && !h.future.isCompletedExceptionally()) {
+                        visitor.visit(key, h);
+                    }
+                });
+            } finally {
+                seg.lock.unlockRead(stamp);
             }
-        } finally {
-            lock.unlock();
         }
     }
 
+    /**
+     * 资源是否在缓存中，正在加载的也算
+     */
+    protected boolean isCached(long key) {
+        Holder<T> h = lookup(segmentFor(key), key);
+        return h != null && h.pins.get() >= 0;
+    }
+
     /**
      * 关闭缓存，写回所有资源
      */
     protected void close() {
-        lock.lock();
-        try {
-            Set<Long> keys = cache.keySet();
-            for (long key : keys) {
-                T obj = cache.get(key);
-                releaseForCache(obj);
-                references.remove(key);
-                cache.remove(key);
+        LongList keys = new LongList();
+        for (Segment<T> seg : segments) {
+            List<Holder<T>> claimed = new ArrayList<>();
+            List<Holder<T>> leaving = new ArrayList<>();
+            long stamp = seg.lock.writeLock();
+            try {
+                seg.map.forEach((key, h) -> {
+                    // 已被置为-1的资源正由其他线程写回
+                    if(h.pins.getAndSet(-1) < 0) {
+                        leaving.add(h);
+                    } else {
+                        claimed.add(h);
+                    }
+                });
+            } finally {
+                seg.lock.unlockWrite(stamp);
+            }
+            for (Holder<T> h : claimed) {
+                if(h.future.isDone() && !h.future.isCompletedExceptionally()) {
+                    releaseForCache(h.future.join());
+                }
+            }
+            stamp = seg.lock.writeLock();
+            try {
+                for (Holder<T> h : claimed) {
+                    removeHolder(seg, h);
+                }
+            } finally {
+                seg.lock.unlockWrite(stamp);
+            }
+            for (Holder<T> h : claimed) {
+                h.markRemoved();
+                keys.add(h.key);
+                count.decrementAndGet();
+            }
+            for (Holder<T> h : leaving) {
+                h.awaitRemoved();
             }
-        } finally {
-            lock.unlock();
         }
+        if(policy != null) {
+            policyLock.lock();
+            try {
+                for (int i = 0; i < keys.size(); i ++) {
+                    policy.remove(keys.get(i));
+                }
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    private Segment<T> segmentFor(long key) {
+        int hash = (int)(key ^ (key >>> 32)) * 0x9E3779B9;
+        return segments[hash >>> (32 - SEGMENT_SHIFT)];
     }
 
 
@@ -0,0 +1,68 @@
+package com.peng.minidb.backend.common;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AbstractCache 的运行统计
+ * 命中、未命中、驱逐次数，以及未命中时加载资源的耗时
+ */
+public class CacheStats {
+
+    private LongAdder hits = new LongAdder();
+    private LongAdder misses = new LongAdder();
+    private LongAdder evictions = new LongAdder();
+    private LatencyHistogram loadLatency = new LatencyHistogram();
+
+    void hit() {
+        hits.increment();
+    }
+
+    void miss(long loadNanos) {
+        misses.increment();
+        loadLatency.record(loadNanos);
+    }
+
+    void evicted() {
+        evictions.increment();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public LatencyHistogram loadLatency() {
+        return loadLatency;
+    }
+
+    /**
+     * 以 prefix 为前缀把统计项写入 out
+     */
+    public void report(String prefix, Map<String, Object> out) {
+        long h = hits(), m = misses();
+        out.put(prefix + ".hits", h);
+        out.put(prefix + ".misses", m);
+        out.put(prefix + ".hit_ratio", h + m == 0 ? "0.00%" : String.format("%.2f%%", h * 100.0 / (h + m)));
+        out.put(prefix + ".evictions", evictions());
+        reportLatency(prefix + ".load", loadLatency, out);
+    }
+
+    /**
+     * 以微秒输出直方图的样本数、均值、p50、p99 和最大值
+     */
+    public static void reportLatency(String prefix, LatencyHistogram hist, Map<String, Object> out) {
+        out.put(prefix + "_count", hist.count());
+        out.put(prefix + "_mean_us", hist.meanNanos() / 1000);
+        out.put(prefix + "_p50_us", hist.percentileNanos(0.5) / 1000);
+        out.put(prefix + "_p99_us", hist.percentileNanos(0.99) / 1000);
+        out.put(prefix + "_max_us", hist.maxNanos() / 1000);
+    }
+}
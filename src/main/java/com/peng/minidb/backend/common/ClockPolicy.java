@@ -0,0 +1,107 @@
+package com.peng.minidb.backend.common;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * CLOCK 置换策略
+ * 所有资源排成一个环，每个槽位带一个访问位
+ * 时钟指针扫过时，访问位为1则清零并跳过，为0且未被引用则驱逐
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private long[] keys;                    // 槽位上的资源
+    private boolean[] used;                 // 槽位是否被占用
+    private boolean[] referenced;           // 访问位
+    private LongIntMap slots;               // 资源所在的槽位
+    private int[] freeSlots;                // 空闲槽位栈
+    private int freeCount;
+    private int hand = 0;                   // 时钟指针
+
+    ClockPolicy(int capacity) {
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        referenced = new boolean[capacity];
+        slots = new LongIntMap(capacity);
+        freeSlots = new int[capacity];
+        for (int i = 0; i < capacity; i ++) {
+            freeSlots[freeCount ++] = capacity - 1 - i;
+        }
+    }
+
+    @Override
+    public void admit(long key) {
+        if(slots.containsKey(key)) {
+            access(key);
+            return;
+        }
+        int slot = freeCount > 0 ? freeSlots[-- freeCount] : grow();
+        keys[slot] = key;
+        used[slot] = true;
+        referenced[slot] = true;
+        slots.put(key, slot);
+    }
+
+    @Override
+    public void access(long key) {
+        int slot = slots.get(key, -1);
+        if(slot >= 0) {
+            referenced[slot] = true;
+        }
+    }
+
+    @Override
+    public void remove(long key) {
+        int slot = slots.get(key, -1);
+        if(slot < 0) {
+            return;
+        }
+        slots.remove(key);
+        used[slot] = false;
+        referenced[slot] = false;
+        freeSlots[freeCount ++] = slot;
+    }
+
+    @Override
+    public long victim(LongPredicate evictable) {
+        // 最多转两圈：第一圈清访问位，第二圈所有资源的访问位都已为0，遇到未被引用的资源即驱逐
+        // 第二圈期间访问位不会被重新置位（调用者持有缓存锁），两圈都没找到说明所有资源都正被引用
+        int n = keys.length;
+        for (int i = 0; i < 2 * n; i ++) {
+            int slot = hand;
+            hand = (hand + 1) % n;
+            if(!used[slot]) {
+                continue;
+            }
+            if(referenced[slot]) {
+                referenced[slot] = false;
+                continue;
+            }
+            if(evictable.test(keys[slot])) {
+                return keys[slot];
+            }
+        }
+        // 所有资源都被引用（例如都被调用者持有未释放），没有可驱逐的
+        return NO_VICTIM;
+    }
+
+    // 槽位用尽时扩充环，正常情况下准入的资源数不会超过容量
+    private int grow() {
+        int n = keys.length;
+        int newN = Math.max(n * 2, 1);
+        long[] newKeys = new long[newN];
+        boolean[] newUsed = new boolean[newN];
+        boolean[] newReferenced = new boolean[newN];
+        System.arraycopy(keys, 0, newKeys, 0, n);
+        System.arraycopy(used, 0, newUsed, 0, n);
+        System.arraycopy(referenced, 0, newReferenced, 0, n);
+        keys = newKeys;
+        used = newUsed;
+        referenced = newReferenced;
+        freeSlots = Arrays.copyOf(freeSlots, newN);
+        for (int i = newN - 1; i > n; i --) {
+            freeSlots[freeCount ++] = i;
+        }
+        return n;
+    }
+}
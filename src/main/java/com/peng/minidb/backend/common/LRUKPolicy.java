@@ -0,0 +1,99 @@
+package com.peng.minidb.backend.common;
+
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.function.LongPredicate;
+
+/**
+ * LRU-K 置换策略
+ * 驱逐倒数第K次访问时间最早的资源（即后向K距离最大的资源）
+ * 访问次数不足K次的资源后向K距离视为无穷大，优先驱逐，其间按最近一次访问时间做LRU
+ */
+public class LRUKPolicy implements ReplacementPolicy {
+
+    private static class History {
+        long key;
+        long[] times;       // 最近K次访问的逻辑时间，环形存放
+        int count;          // 已记录的访问次数，最大为K
+
+        long kth() {
+            // 不足K次访问时返回0，排在最前面
+            return count < times.length ? 0 : times[count % times.length];
+        }
+
+        long last() {
+            return times[(count - 1) % times.length];
+        }
+    }
+
+    private final int k;
+    private long clock = 0;                     // 逻辑时间
+    private LongObjectMap<History> histories;
+    private TreeSet<History> order;             // 按 (kth, last) 升序，越靠前越先被驱逐
+
+    LRUKPolicy(int k) {
+        this.k = k;
+        histories = new LongObjectMap<>();
+        order = new TreeSet<>((a, b) -> {
+            int c = Long.compare(a.kth(), b.kth());
+            if(c != 0) return c;
+            c = Long.compare(a.last(), b.last());
+            if(c != 0) return c;
+            return Long.compare(a.key, b.key);
+        });
+    }
+
+    @Override
+    public void admit(long key) {
+        if(histories.get(key) != null) {
+            access(key);
+            return;
+        }
+        History h = new History();
+        h.key = key;
+        h.times = new long[k];
+        record(h);
+        histories.put(key, h);
+        order.add(h);
+    }
+
+    @Override
+    public void access(long key) {
+        History h = histories.get(key);
+        if(h == null) {
+            return;
+        }
+        order.remove(h);
+        record(h);
+        order.add(h);
+    }
+
+    @Override
+    public void remove(long key) {
+        History h = histories.remove(key);
+        if(h != null) {
+            order.remove(h);
+        }
+    }
+
+    @Override
+    public long victim(LongPredicate evictable) {
+        Iterator<History> it = order.iterator();
+        while(it.hasNext()) {
+            History h = it.next();
+            if(evictable.test(h.key)) {
+                return h.key;
+            }
+        }
+        return NO_VICTIM;
+    }
+
+    private void record(History h) {
+        // count 达到K后在 [K, 2K) 之间循环，保证 count % K 始终指向最旧的记录
+        h.times[h.count % k] = ++ clock;
+        h.count ++;
+        if(h.count >= 2 * k) {
+            h.count -= k;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.peng.minidb.backend.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 延迟直方图，按 2 的幂划分桶，单位纳秒
+ * 第 i 个桶统计 [2^(i-1), 2^i) 纳秒的样本，分位数返回所在桶的上界，误差在 2 倍以内
+ * 记录无锁，读取时不保证与并发记录严格一致
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 48;              // 2^47 纳秒约 39 小时
+
+    private AtomicLongArray buckets;
+    private LongAdder count;
+    private LongAdder total;
+    private volatile long max;
+
+    public LatencyHistogram() {
+        buckets = new AtomicLongArray(BUCKETS);
+        count = new LongAdder();
+        total = new LongAdder();
+    }
+
+    public void record(long nanos) {
+        if(nanos < 0) {
+            nanos = 0;
+        }
+        int i = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+        buckets.incrementAndGet(i);
+        count.increment();
+        total.add(nanos);
+        if(nanos > max) {
+            // 偶尔丢失一次更大的值可以接受
+            max = nanos;
+        }
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long meanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : total.sum() / n;
+    }
+
+    public long maxNanos() {
+        return max;
+    }
+
+    /**
+     * 返回 p 分位数（0 < p <= 1）所在桶的上界，没有样本时返回 0
+     */
+    public long percentileNanos(double p) {
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i ++) {
+            snapshot[i] = buckets.get(i);
+            n += snapshot[i];
+        }
+        if(n == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(p * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i ++) {
+            seen += snapshot[i];
+            if(seen >= rank) {
+                return i == 0 ? 0 : Math.min(1L << i, max);
+            }
+        }
+        return max;
+    }
+}
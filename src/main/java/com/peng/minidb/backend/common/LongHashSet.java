@@ -0,0 +1,77 @@
+package com.peng.minidb.backend.common;
+
+/**
+ * long 集合，开放寻址、线性探测，元素不装箱
+ * 非线程安全
+ */
+public class LongHashSet {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] keys;            // 0 表示空槽位
+    private int size;               // 不含 0
+    private boolean hasZero;
+
+    public LongHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongHashSet(int expected) {
+        keys = new long[LongHashing.tableSize(expected, MIN_CAPACITY)];
+    }
+
+    public boolean contains(long key) {
+        if(key == 0) {
+            return hasZero;
+        }
+        int mask = keys.length - 1;
+        int i = LongHashing.hash(key) & mask;
+        while(keys[i] != 0) {
+            if(keys[i] == key) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public boolean add(long key) {
+        if(key == 0) {
+            boolean added = !hasZero;
+            hasZero = true;
+            return added;
+        }
+        int mask = keys.length - 1;
+        int i = LongHashing.hash(key) & mask;
+        while(keys[i] != 0) {
+            if(keys[i] == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        size ++;
+        if(size > keys.length >> 1) {
+            resize(keys.length << 1);
+        }
+        return true;
+    }
+
+    public int size() {
+        return size + (hasZero ? 1 : 0);
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        keys = new long[capacity];
+        int mask = capacity - 1;
+        for (long k : oldKeys) {
+            if(k == 0) continue;
+            int j = LongHashing.hash(k) & mask;
+            while(keys[j] != 0) {
+                j = (j + 1) & mask;
+            }
+            keys[j] = k;
+        }
+    }
+}
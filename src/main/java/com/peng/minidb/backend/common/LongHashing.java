@@ -0,0 +1,32 @@
+package com.peng.minidb.backend.common;
+
+/**
+ * long 键哈希表的公共工具
+ */
+final class LongHashing {
+
+    private LongHashing() {}
+
+    // 斐波那契散列，让页号、uid 这类低位规律的 key 也能均匀分布
+    static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    // 装载因子 0.5 下容纳 expected 个元素所需的 2 的幂次容量
+    static int tableSize(int expected, int min) {
+        int capacity = min;
+        while(capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    // home 是否循环地落在 (i, j] 区间内
+    static boolean between(int home, int i, int j) {
+        if(i <= j) {
+            return home > i && home <= j;
+        }
+        return home > i || home <= j;
+    }
+}
@@ -0,0 +1,75 @@
+package com.peng.minidb.backend.common;
+
+import java.util.Arrays;
+
+/**
+ * long 列表，元素不装箱
+ * 非线程安全
+ */
+public class LongList {
+
+    private long[] elements;
+    private int size;
+
+    public LongList() {
+        elements = new long[4];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long get(int index) {
+        return elements[index];
+    }
+
+    public void add(long e) {
+        ensureCapacity();
+        elements[size ++] = e;
+    }
+
+    public void addFirst(long e) {
+        ensureCapacity();
+        System.arraycopy(elements, 0, elements, 1, size);
+        elements[0] = e;
+        size ++;
+    }
+
+    public long removeFirst() {
+        long e = elements[0];
+        System.arraycopy(elements, 1, elements, 0, size - 1);
+        size --;
+        return e;
+    }
+
+    // 删除第一个等于 e 的元素
+    public boolean removeValue(long e) {
+        for (int i = 0; i < size; i ++) {
+            if(elements[i] == e) {
+                System.arraycopy(elements, i + 1, elements, i, size - i - 1);
+                size --;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean contains(long e) {
+        for (int i = 0; i < size; i ++) {
+            if(elements[i] == e) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void ensureCapacity() {
+        if(size == elements.length) {
+            elements = Arrays.copyOf(elements, size << 1);
+        }
+    }
+}
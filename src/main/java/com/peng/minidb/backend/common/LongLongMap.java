@@ -0,0 +1,160 @@
+package com.peng.minidb.backend.common;
+
+import java.util.Arrays;
+
+/**
+ * long 到 long 的哈希表，开放寻址、线性探测，key 和 value 都不装箱
+ * 非线程安全
+ */
+public class LongLongMap {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] keys;            // 0 表示空槽位
+    private long[] values;
+    private int size;               // 不含 key 为 0 的元素
+    private boolean hasZero;
+    private long zeroValue;
+
+    public LongLongMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongLongMap(int expected) {
+        int capacity = LongHashing.tableSize(expected, MIN_CAPACITY);
+        keys = new long[capacity];
+        values = new long[capacity];
+    }
+
+    public long get(long key, long defaultValue) {
+        if(key == 0) {
+            return hasZero ? zeroValue : defaultValue;
+        }
+        int i = indexOf(key);
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    public boolean containsKey(long key) {
+        if(key == 0) {
+            return hasZero;
+        }
+        return indexOf(key) >= 0;
+    }
+
+    public void put(long key, long value) {
+        if(key == 0) {
+            hasZero = true;
+            zeroValue = value;
+            return;
+        }
+        int mask = keys.length - 1;
+        int i = LongHashing.hash(key) & mask;
+        while(keys[i] != 0) {
+            if(keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size ++;
+        if(size > keys.length >> 1) {
+            resize(keys.length << 1);
+        }
+    }
+
+    public boolean remove(long key) {
+        if(key == 0) {
+            boolean had = hasZero;
+            hasZero = false;
+            return had;
+        }
+        int i = indexOf(key);
+        if(i < 0) {
+            return false;
+        }
+        shiftDelete(i);
+        return true;
+    }
+
+    public int size() {
+        return size + (hasZero ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+        hasZero = false;
+    }
+
+    // 以数组形式返回所有 key 的拷贝，遍历期间可以修改表
+    public long[] keys() {
+        long[] res = new long[size()];
+        int j = 0;
+        if(hasZero) {
+            res[j ++] = 0;
+        }
+        for (long k : keys) {
+            if(k != 0) {
+                res[j ++] = k;
+            }
+        }
+        return res;
+    }
+
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        int i = LongHashing.hash(key) & mask;
+        while(keys[i] != 0) {
+            if(keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    // 删除槽位 i，并把其后同一探测链上的元素前移
+    private void shiftDelete(int i) {
+        int mask = keys.length - 1;
+        int j = i;
+        while(true) {
+            j = (j + 1) & mask;
+            long k = keys[j];
+            if(k == 0) {
+                break;
+            }
+            int home = LongHashing.hash(k) & mask;
+            if(!LongHashing.between(home, i, j)) {
+                keys[i] = k;
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = 0;
+        size --;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[capacity];
+        values = new long[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i ++) {
+            long k = oldKeys[i];
+            if(k == 0) continue;
+            int j = LongHashing.hash(k) & mask;
+            while(keys[j] != 0) {
+                j = (j + 1) & mask;
+            }
+            keys[j] = k;
+            values[j] = oldValues[i];
+        }
+    }
+}
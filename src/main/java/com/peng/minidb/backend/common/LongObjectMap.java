@@ -0,0 +1,208 @@
+package com.peng.minidb.backend.common;
+
+import java.util.Arrays;
+
+/**
+ * long 到对象的哈希表，开放寻址、线性探测，key 不装箱
+ * 删除时后移填补空位，不留墓碑；key 为 0 的元素单独存放
+ * 非线程安全；get 在并发修改下不会抛出异常或死循环，可配合 StampedLock 乐观读使用
+ */
+public class LongObjectMap<V> {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] keys;            // 0 表示空槽位
+    private Object[] values;
+    private int size;               // 不含 key 为 0 的元素
+    private boolean hasZero;
+    private Object zeroValue;
+
+    public interface Visitor<V> {
+        void visit(long key, V value);
+    }
+
+    public LongObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongObjectMap(int expected) {
+        int capacity = LongHashing.tableSize(expected, MIN_CAPACITY);
+        keys = new long[capacity];
+        values = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if(key == 0) {
+            return hasZero ? (V)zeroValue : null;
+        }
+        long[] ks = keys;
+        Object[] vs = values;
+        if(ks.length != vs.length) {
+            // 与扩容并发，读到了不一致的数组
+            return null;
+        }
+        int mask = ks.length - 1;
+        int i = LongHashing.hash(key) & mask;
+        for (int n = 0; n < ks.length; n ++) {
+            long k = ks[i];
+            if(k == key) {
+                return (V)vs[i];
+            }
+            if(k == 0) {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        if(key == 0) {
+            return hasZero;
+        }
+        return indexOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if(key == 0) {
+            V old = (V)zeroValue;
+            hasZero = true;
+            zeroValue = value;
+            return old;
+        }
+        int mask = keys.length - 1;
+        int i = LongHashing.hash(key) & mask;
+        while(keys[i] != 0) {
+            if(keys[i] == key) {
+                V old = (V)values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size ++;
+        if(size > keys.length >> 1) {
+            resize(keys.length << 1);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        if(key == 0) {
+            V old = (V)zeroValue;
+            hasZero = false;
+            zeroValue = null;
+            return old;
+        }
+        int i = indexOf(key);
+        if(i < 0) {
+            return null;
+        }
+        V old = (V)values[i];
+        shiftDelete(i);
+        return old;
+    }
+
+    public int size() {
+        return size + (hasZero ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, null);
+        size = 0;
+        hasZero = false;
+        zeroValue = null;
+    }
+
+    // 以数组形式返回所有 key 的拷贝，遍历期间可以修改表
+    public long[] keys() {
+        long[] res = new long[size()];
+        int j = 0;
+        if(hasZero) {
+            res[j ++] = 0;
+        }
+        for (long k : keys) {
+            if(k != 0) {
+                res[j ++] = k;
+            }
+        }
+        return res;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<V> visitor) {
+        if(hasZero) {
+            visitor.visit(0, (V)zeroValue);
+        }
+        for (int i = 0; i < keys.length; i ++) {
+            if(keys[i] != 0) {
+                visitor.visit(keys[i], (V)values[i]);
+            }
+        }
+    }
+
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        int i = LongHashing.hash(key) & mask;
+        while(keys[i] != 0) {
+            if(keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    // 删除槽位 i，并把其后同一探测链上的元素前移
+    private void shiftDelete(int i) {
+        int mask = keys.length - 1;
+        int j = i;
+        while(true) {
+            j = (j + 1) & mask;
+            long k = keys[j];
+            if(k == 0) {
+                break;
+            }
+            int home = LongHashing.hash(k) & mask;
+            if(!LongHashing.between(home, i, j)) {
+                keys[i] = k;
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = 0;
+        values[i] = null;
+        size --;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        long[] newKeys = new long[capacity];
+        Object[] newValues = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i ++) {
+            long k = oldKeys[i];
+            if(k == 0) continue;
+            int j = LongHashing.hash(k) & mask;
+            while(newKeys[j] != 0) {
+                j = (j + 1) & mask;
+            }
+            newKeys[j] = k;
+            newValues[j] = oldValues[i];
+        }
+        // 先换 values 再换 keys，乐观读者看到长度不一致时会放弃
+        values = newValues;
+        keys = newKeys;
+    }
+}
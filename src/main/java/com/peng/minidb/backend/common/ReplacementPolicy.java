@@ -0,0 +1,42 @@
+package com.peng.minidb.backend.common;
+
+import java.util.function.LongPredicate;
+
+/**
+ * 缓存置换策略
+ * 由 AbstractCache 在持有缓存锁的情况下调用，实现无需自行保证线程安全
+ */
+public interface ReplacementPolicy {
+
+    // 没有可驱逐的资源
+    long NO_VICTIM = -1;
+
+    /**
+     * 资源被加载进缓存
+     */
+    void admit(long key);
+
+    /**
+     * 资源在缓存中被命中
+     */
+    void access(long key);
+
+    /**
+     * 资源被移出缓存
+     */
+    void remove(long key);
+
+    /**
+     * 选出一个可驱逐的资源，evictable 用于判断资源当前是否未被引用
+     * 没有可驱逐的资源时返回 NO_VICTIM
+     */
+    long victim(LongPredicate evictable);
+
+    public static ReplacementPolicy clock(int capacity) {
+        return new ClockPolicy(capacity);
+    }
+
+    public static ReplacementPolicy lruK(int k) {
+        return new LRUKPolicy(k);
+    }
+}
@@ -0,0 +1,153 @@
+package com.peng.minidb.backend.dm;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.primitives.Bytes;
+
+import com.peng.minidb.backend.dm.logger.Logger;
+import com.peng.minidb.backend.utils.CRC32C;
+import com.peng.minidb.backend.utils.Panic;
+import com.peng.minidb.backend.utils.Parser;
+
+/**
+ * 后台检查点线程
+ *
+ * 距上次检查点新写的日志超过 CHECKPOINT_LOG_BYTES，或超过 CHECKPOINT_INTERVAL_MS 且有新日志时，做一次检查点
+ * 最近一次检查点日志的 LSN 保存在 .ckpt 文件中，格式为 [LSN] [Checksum]，
+ * 与 Booter 一样先写临时文件再原子替换，恢复时直接从这条日志开始
+ */
+class Checkpointer implements Runnable {
+
+    static final String CKPT_SUFFIX = ".ckpt";
+    static final String CKPT_TMP_SUFFIX = ".ckpt_tmp";
+
+    private static final long CHECKPOINT_LOG_BYTES = 16L << 20;
+    private static final long CHECKPOINT_INTERVAL_MS = 5 * 60 * 1000;
+    private static final long POLL_MS = 1000;
+
+    private String path;
+    private DataManagerImpl dm;
+    private Logger logger;
+
+    private volatile long lastLsn;      // 上次检查点完成时的日志尾部
+    private long lastTime;
+
+    private Lock lock;
+    private Condition wakeUp;
+    private volatile boolean closed;
+    private Thread thread;
+
+    Checkpointer(String path, DataManagerImpl dm, Logger logger) {
+        this.path = path;
+        this.dm = dm;
+        this.logger = logger;
+        this.lastLsn = logger.nextLsn();
+        this.lastTime = System.currentTimeMillis();
+        this.lock = new ReentrantLock();
+        this.wakeUp = lock.newCondition();
+        this.thread = new Thread(this, "checkpointer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 读取最近一次检查点日志的 LSN，文件不存在或已损坏时返回 0，表示从日志开头恢复
+     */
+    static long load(String path) {
+        File f = new File(path + CKPT_SUFFIX);
+        if(!f.exists()) {
+            return 0;
+        }
+        byte[] raw = null;
+        try {
+            raw = Files.readAllBytes(f.toPath());
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        if(raw.length != 12 || CRC32C.compute(raw, 0, 8) != Parser.parseInt(Arrays.copyOfRange(raw, 8, 12))) {
+            return 0;
+        }
+        return Parser.parseLong(raw);
+    }
+
+    /**
+     * 新建数据库时清除同名的旧检查点文件
+     */
+    static void remove(String path) {
+        new File(path + CKPT_SUFFIX).delete();
+        new File(path + CKPT_TMP_SUFFIX).delete();
+    }
+
+    /**
+     * 检查点日志已落盘后调用，记录它的 LSN
+     */
+    void save(long lsn) {
+        byte[] lsnRaw = Parser.long2Byte(lsn);
+        byte[] raw = Bytes.concat(lsnRaw, Parser.int2Byte(CRC32C.compute(lsnRaw, 0, lsnRaw.length)));
+        File tmp = new File(path + CKPT_TMP_SUFFIX);
+        try(FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(raw);
+            out.getFD().sync();
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        try {
+            Files.move(tmp.toPath(), new File(path + CKPT_SUFFIX).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        lastLsn = logger.nextLsn();
+        lastTime = System.currentTimeMillis();
+    }
+
+    @Override
+    public void run() {
+        while(!closed) {
+            lock.lock();
+            try {
+                if(!closed) {
+                    wakeUp.await(POLL_MS, TimeUnit.MILLISECONDS);
+                }
+            } catch(InterruptedException e) {
+                Panic.panic(e);
+            } finally {
+                lock.unlock();
+            }
+            if(closed) {
+                break;
+            }
+            long grown = logger.nextLsn() - lastLsn;
+            if(grown >= CHECKPOINT_LOG_BYTES
+                    || (grown > 0 && System.currentTimeMillis() - lastTime >= CHECKPOINT_INTERVAL_MS)) {
+                dm.checkpoint();
+            }
+        }
+    }
+
+    /**
+     * 停止后台线程，正在进行的检查点会先完成
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            wakeUp.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
+    }
+}
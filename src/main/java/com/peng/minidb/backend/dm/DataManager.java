@@ -1,5 +1,8 @@
 package com.peng.minidb.backend.dm;
 
+import java.util.List;
+import java.util.Map;
+
 import com.peng.minidb.backend.dm.dataItem.DataItem;
 import com.peng.minidb.backend.dm.logger.Logger;
 import com.peng.minidb.backend.dm.page.PageOne;
@@ -9,30 +12,62 @@ import com.peng.minidb.backend.tm.TransactionManager;
 public interface DataManager {
     DataItem read(long uid) throws Exception;
     long insert(long xid, byte[] data) throws Exception;
+    // 写事务的提交日志并等待落盘，之后事务即已提交
+    void logCommit(long xid);
+    // 写出所有脏页并记录检查点，之后的恢复从这里开始
+    void checkpoint();
+    // 提示即将按顺序读取这些数据项，预读它们所在的页面
+    void prefetch(List<Long> uids);
+    // 标记当前线程的大范围扫描，期间读入的页面只占用少量缓存
+    void beginScan();
+    void endScan();
+    // 把页面缓存和数据项缓存的运行统计写入 out
+    void status(Map<String, Object> out);
     void close();
 
     public static DataManager create(String path, long mem, TransactionManager tm) {
         PageCache pc = PageCache.create(path, mem);
         Logger lg = Logger.create(path);
+        Checkpointer.remove(path);
 
         DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
         dm.initPageOne();
+        dm.checkpointer = new Checkpointer(path, dm, lg);
         return dm;
     }
 
     public static DataManager open(String path, long mem, TransactionManager tm) {
-        PageCache pc = PageCache.open(path, mem);
+        return open(path, mem, tm, false);
+    }
+
+    /**
+     * mapped 为 true 时数据文件使用内存映射读取
+     */
+    public static DataManager open(String path, long mem, TransactionManager tm, boolean mapped) {
+        PageCache pc = PageCache.open(path, mem, mapped);
         Logger lg = Logger.open(path);
         DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
+        boolean recovered = false;
         if(!dm.loadCheckPageOne()) {
-            Recover.recover(tm, lg, pc);
+            Recover.recover(tm, lg, pc, Checkpointer.load(path));
+            recovered = true;
         }
         dm.fillPageIndex();
         PageOne.setVcOpen(dm.pageOne);
         dm.pc.flushPage(dm.pageOne);
+        dm.checkpointer = new Checkpointer(path, dm, lg);
+        if(recovered) {
+            // 恢复的结果落盘，再次崩溃时不必重做
+            dm.checkpoint();
+        }
 
         return dm;
     }
 
+    // 物理删除数据项，调用者需保证已没有对它的引用，之后读取它返回 null
     void physicalDelete(Long uid) throws Exception;
+    // 取出自上次调用以来有数据项被物理删除的页面
+    int[] takeDeletedPages();
+    // 回收这些页面末尾连续的已删除数据项，空间重新用于插入；已删除数据项的 uid 可能被复用，调用者需保证没有事务还持有它们
+    void reclaim(int[] pgnos) throws Exception;
 }
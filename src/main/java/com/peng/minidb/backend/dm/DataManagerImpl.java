@@ -1,6 +1,7 @@
 package com.peng.minidb.backend.dm;
 
 import com.peng.minidb.backend.common.AbstractCache;
+import com.peng.minidb.backend.common.LongLongMap;
 import com.peng.minidb.backend.dm.dataItem.DataItem;
 import com.peng.minidb.backend.dm.dataItem.DataItemImpl;
 import com.peng.minidb.backend.dm.logger.Logger;
@@ -11,12 +12,19 @@ import com.peng.minidb.backend.dm.pageCache.PageCache;
 import com.peng.minidb.backend.dm.pageIndex.PageIndex;
 import com.peng.minidb.backend.dm.pageIndex.PageInfo;
 import com.peng.minidb.backend.tm.TransactionManager;
+import com.peng.minidb.backend.tm.TransactionManagerImpl;
 import com.peng.minidb.backend.utils.Panic;
-import com.peng.minidb.backend.utils.Parser;
 import com.peng.minidb.backend.utils.Types;
 import com.peng.minidb.common.Error;
 
-import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class DataManagerImpl extends AbstractCache<DataItem> implements DataManager {
 
@@ -25,6 +33,13 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
     Logger logger;
     PageIndex pIndex;
     Page pageOne;
+    Checkpointer checkpointer;
+
+    // 写日志并修改页面的过程持有读锁，检查点复制脏页时持有写锁，保证复制到的页面与日志一致
+    private ReadWriteLock modifyLock;
+    private Lock checkpointLock;        // 同一时刻只做一个检查点
+    private LongLongMap firstLsn;       // 自上次检查点以来写过日志的事务 -> 它的第一条日志，由自身加锁
+    private Set<Integer> deletedPages;  // 有数据项被物理删除、尚未回收的页面，由自身加锁
 
     public DataManagerImpl(PageCache pc, Logger logger, TransactionManager tm) {
         super(0);
@@ -32,6 +47,11 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         this.logger = logger;
         this.tm = tm;
         this.pIndex = new PageIndex();
+        this.modifyLock = new ReentrantReadWriteLock();
+        this.checkpointLock = new ReentrantLock();
+        this.firstLsn = new LongLongMap();
+        this.deletedPages = new HashSet<>();
+        pc.setLogger(logger);
     }
 
     @Override
@@ -69,67 +89,273 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         int freeSpace = 0;
         try {
             pg = pc.getPage(pi.pgno);
-            byte[] log = Recover.insertLog(xid, pg, raw);
-            logger.log(log);
+            modifyLock.readLock().lock();
+            try {
+                byte[] log = Recover.insertLog(xid, pg, raw);
+                noteLog(xid, logger.log(log));
 
-            short offset = PageX.insert(pg, raw);
+                short offset = PageX.insert(pg, raw);
+                return Types.addressToUid(pi.pgno, offset);
+            } finally {
+                modifyLock.readLock().unlock();
+                // 释放后页帧可能被回收复用，空闲空间要在释放前读取
+                freeSpace = PageX.getFreeSpace(pg);
+                pg.release();
+            }
+        } finally {
+            // 将取出的pg重新插入pIndex
+            pIndex.add(pi.pgno, freeSpace);
+        }
+    }
 
-            pg.release();
-            return Types.addressToUid(pi.pgno, offset);
+    @Override
+    public void prefetch(List<Long> uids) {
+        int last = 0;
+        for (long uid : uids) {
+            int pgno = (int)(uid >>> 32);
+            if(pgno != last) {
+                pc.prefetch(pgno);
+                last = pgno;
+            }
+        }
+    }
+
+    @Override
+    public void beginScan() {
+        pc.beginScan();
+    }
+
+    @Override
+    public void endScan() {
+        pc.endScan();
+    }
+
+    /**
+     * 提交日志与并发提交的事务共用一次 fsync，XID 文件不再需要单独 fsync
+     * 没有写过日志的只读事务不需要提交日志，崩溃后它的状态对任何数据都没有影响
+     */
+    @Override
+    public void logCommit(long xid) {
+        synchronized(firstLsn) {
+            if(!firstLsn.containsKey(xid)) {
+                return;
+            }
+        }
+        logger.log(Recover.commitLog(xid));
+        logger.flush();
+    }
+
+    /**
+     * 做一次检查点
+     * 暂停页面修改，记下日志尾部作为 redo 起点，把脏页复制进写出队列，记下活跃事务；
+     * 恢复修改后再写出页面、写检查点日志，记录检查点日志的位置，最后回收恢复不再需要的日志段
+     * 复制之外的 I/O 都不阻塞事务
+     */
+    @Override
+    public void checkpoint() {
+        internCheckpoint(true);
+    }
 
+    // prune 为 false 时不查询事务状态，检查点中的活跃事务可能偏多，只会让恢复多扫描一些日志
+    private void internCheckpoint(boolean prune) {
+        checkpointLock.lock();
+        try {
+            if(prune) {
+                pruneFirstLsn();
+            }
+            long redoLsn;
+            int pageCount;
+            long[] active;
+            modifyLock.writeLock().lock();
+            try {
+                redoLsn = logger.nextLsn();
+                pc.queueDirty();
+                pageCount = pc.getPageNumber();
+                synchronized(firstLsn) {
+                    long[] xids = firstLsn.keys();
+                    active = new long[xids.length * 2];
+                    for (int i = 0; i < xids.length; i ++) {
+                        active[i * 2] = xids[i];
+                        active[i * 2 + 1] = firstLsn.get(xids[i], redoLsn);
+                    }
+                }
+            } finally {
+                modifyLock.writeLock().unlock();
+            }
+            pc.flush();
+            // 此前提交的事务状态落盘后，才能回收它们的提交日志
+            tm.flush();
+            long lsn = logger.log(Recover.checkpointLog(redoLsn, pageCount, active));
+            logger.flush();
+            if(checkpointer != null) {
+                checkpointer.save(lsn);
+                // 恢复最早只需读到检查点中活跃事务的第一条日志
+                long keepFrom = redoLsn;
+                for (int i = 1; i < active.length; i += 2) {
+                    keepFrom = Math.min(keepFrom, active[i]);
+                }
+                logger.removeBefore(keepFrom);
+            }
         } finally {
-            // 将取出的pg重新插入pIndex
-            if(pg != null) {
-                pIndex.add(pi.pgno, PageX.getFreeSpace(pg));
-            } else {
-                pIndex.add(pi.pgno, freeSpace);
+            checkpointLock.unlock();
+        }
+    }
+
+    // 记录事务的第一条日志
+    private void noteLog(long xid, long lsn) {
+        synchronized(firstLsn) {
+            if(!firstLsn.containsKey(xid)) {
+                firstLsn.put(xid, lsn);
+            }
+        }
+    }
+
+    // 去掉已结束的事务，在暂停修改之前做，查询事务状态不占用暂停时间
+    private void pruneFirstLsn() {
+        long[] xids;
+        synchronized(firstLsn) {
+            xids = firstLsn.keys();
+        }
+        for (long xid : xids) {
+            if(!tm.isActive(xid)) {
+                synchronized(firstLsn) {
+                    firstLsn.remove(xid);
+                }
             }
         }
     }
 
+    // 修改页面前后调用，见 modifyLock
+    public void beginModify() {
+        modifyLock.readLock().lock();
+    }
+
+    public void endModify() {
+        modifyLock.readLock().unlock();
+    }
+
+    @Override
+    public void status(Map<String, Object> out) {
+        pc.status(out);
+        logger.status(out);
+        out.put("data_item_cache.resident", getResidentCount());
+        out.put("data_item_cache.pinned", getPinnedCount());
+        getStats().report("data_item_cache", out);
+    }
+
     @Override
     public void close() {
+        if(checkpointer != null) {
+            checkpointer.close();
+        }
         super.close();
-        logger.close();
+        // 正常关闭前做一次检查点，下次异常退出时恢复可以从这里开始
+        // 此时事务管理器可能已经关闭，不查询事务状态
+        internCheckpoint(false);
 
         PageOne.setVcClose(pageOne);
         pageOne.release();
+        // 页面缓存关闭时还要刷日志，日志最后关闭
         pc.close();
+        logger.close();
     }
 
+    /**
+     * 标记数据项已被物理删除，记录所在页面，等调用者确认没有事务再引用它后由 reclaim 回收空间
+     * 页面只在末尾追加，数据项的 uid 即其位置，只有页面末尾连续的已删除数据项才能回收
+     */
     @Override
     public void physicalDelete(Long uid) throws Exception {
-        // 解析出页号和偏移量
-        short offset = (short) (uid & ((1L << 16) - 1));
-        uid >>>= 32;
-        int pgno = (int) (uid & ((1L << 32) - 1));
-
-        // 获取目标页
-        Page pg = pc.getPage(pgno);
+        DataItem di = read(uid);
+        if(di == null) {
+            return;
+        }
         try {
-            // 获取页中的数据
-            byte[] data = pg.getData();
-
-            // 计算数据项的大小
-            short size = Parser.parseShort(Arrays.copyOfRange(data, offset + DataItemImpl.OF_SIZE, offset + DataItemImpl.OF_DATA));
-            int dataItemLength = DataItemImpl.OF_DATA + size;
+            di.before();
+            try {
+                DataItem.setDataItemRawDeleted(di.getRaw());
+            } finally {
+                di.after(TransactionManagerImpl.SUPER_XID);
+            }
+        } finally {
+            di.release();
+        }
+        synchronized(deletedPages) {
+            deletedPages.add((int)(uid >>> 32));
+        }
+    }
 
-            // 清除数据项的内容（将数据项所在区域的字节清零）
-            Arrays.fill(data, offset, offset + dataItemLength, (byte) 0);
+    @Override
+    public int[] takeDeletedPages() {
+        synchronized(deletedPages) {
+            int[] pgnos = deletedPages.stream().mapToInt(Integer::intValue).toArray();
+            deletedPages.clear();
+            return pgnos;
+        }
+    }
 
-            // 更新该页的可用空间信息
-            pIndex.add(pgno, PageX.getFreeSpace(pg));
+    @Override
+    public void reclaim(int[] pgnos) throws Exception {
+        for (int pgno : pgnos) {
+            // 从 pIndex 取走页面，回收期间不会有插入
+            PageInfo pi = pIndex.remove(pgno);
+            if(pi == null) {
+                synchronized(deletedPages) {
+                    deletedPages.add(pgno);
+                }
+                continue;
+            }
+            int freeSpace = pi.freeSpace;
+            try {
+                Page pg = pc.getPage(pgno);
+                try {
+                    truncateDeleted(pg);
+                } finally {
+                    freeSpace = PageX.getFreeSpace(pg);
+                    pg.release();
+                }
+            } finally {
+                pIndex.add(pgno, freeSpace);
+            }
+        }
+    }
 
+    // 截掉页面末尾连续的已删除数据项，调用者需独占页面的插入
+    private void truncateDeleted(Page pg) {
+        modifyLock.readLock().lock();
+        try {
+            short end = liveEnd(pg);
+            if(end < PageX.getFSO(pg)) {
+                logger.log(Recover.truncateLog(TransactionManagerImpl.SUPER_XID, pg.getPageNumber(), end));
+                PageX.truncate(pg, end);
+            }
         } finally {
-            // 释放页
-            pg.release();
+            modifyLock.readLock().unlock();
+        }
+    }
+
+    // 最后一个未删除的数据项的结尾；数据项解析不合法时不回收，返回 FSO
+    private short liveEnd(Page pg) {
+        byte[] raw = pg.getData();
+        short fso = PageX.getFSO(pg);
+        int offset = PageX.OF_DATA, end = PageX.OF_DATA;
+        while(offset < fso) {
+            int length = DataItem.getDataItemRawLength(raw, offset);
+            if(length < DataItemImpl.OF_DATA || offset + length > fso) {
+                return fso;
+            }
+            if(!DataItem.isDataItemRawDeleted(raw, offset)) {
+                end = offset + length;
+            }
+            offset += length;
         }
+        return (short)end;
     }
 
     // 为xid生成update日志
     public void logDataItem(long xid, DataItem di) {
         byte[] log = Recover.updateLog(xid, di);
-        logger.log(log);
+        noteLog(xid, logger.log(log));
     }
 
     public void releaseDataItem(DataItem di) {
@@ -182,6 +408,8 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
             } catch (Exception e) {
                 Panic.panic(e);
             }
+            // 打开时没有事务，已删除的数据项都不再被引用
+            truncateDeleted(pg);
             pIndex.add(pg.getPageNumber(), PageX.getFreeSpace(pg));
             pg.release();
         }
@@ -1,28 +1,40 @@
 package com.peng.minidb.backend.dm;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.common.primitives.Bytes;
 
+import com.peng.minidb.backend.common.LongHashSet;
+import com.peng.minidb.backend.common.LongList;
+import com.peng.minidb.backend.common.LongObjectMap;
 import com.peng.minidb.backend.common.SubArray;
 import com.peng.minidb.backend.dm.dataItem.DataItem;
+import com.peng.minidb.backend.dm.logger.LogReader;
 import com.peng.minidb.backend.dm.logger.Logger;
 import com.peng.minidb.backend.dm.page.Page;
 import com.peng.minidb.backend.dm.page.PageX;
 import com.peng.minidb.backend.dm.pageCache.PageCache;
 import com.peng.minidb.backend.tm.TransactionManager;
+import com.peng.minidb.backend.utils.LZ4;
 import com.peng.minidb.backend.utils.Panic;
 import com.peng.minidb.backend.utils.Parser;
+import com.peng.minidb.common.Error;
 
 public class Recover {
 
     private static final byte LOG_TYPE_INSERT = 0;
     private static final byte LOG_TYPE_UPDATE = 1;
+    private static final byte LOG_TYPE_CHECKPOINT = 2;
+    private static final byte LOG_TYPE_DELTA = 3;
+    private static final byte LOG_TYPE_INSERT_LZ4 = 4;
+    private static final byte LOG_TYPE_COMMIT = 5;
+    private static final byte LOG_TYPE_TRUNCATE = 6;
+
+    private static final int COMPRESS_THRESHOLD = 256;     // 插入的数据达到这个长度才尝试压缩
 
     private static final int REDO = 0;
     private static final int UNDO = 1;
@@ -37,167 +49,329 @@ public class Recover {
     static class UpdateLogInfo {
         long xid;
         int pgno;
-        short offset;
-        byte[] oldRaw;
-        byte[] newRaw;
+        short[] offset;     // 每一段在页内的偏移
+        byte[][] oldRaw;
+        byte[][] newRaw;
+    }
+
+    static class CheckpointLogInfo {
+        long redoLsn;
+        int pageCount;
+        long[] active;      // [xid, 第一条日志的 LSN] 依次排列
     }
 
-    public static void recover(TransactionManager tm, Logger lg, PageCache pc) {
+    /**
+     * 分析时收集的一条数据日志，每个页面的日志按日志顺序排列
+     * 事务是否提交要读到它的提交日志才知道，扫描结束后再决定 redo 还是 undo
+     */
+    static class LogRef {
+        long xid;
+        boolean redo;       // 在 redo 起点之后，事务已提交时需要 redo
+        byte[] log;
+    }
+
+    /**
+     * ckptLsn 为最近一次检查点日志的 LSN，为 0 时从日志开头恢复
+     * 有检查点时，redo 从检查点的 redo 起点开始；undo 需要的日志可能更早，从检查点中活跃事务的第一条日志开始
+     *
+     * 事务提交时写提交日志，XID 文件中的状态延迟写入，以提交日志为准补上丢失的提交状态
+     *
+     * 只扫描一遍日志，同时得到最大页号、每个页面需要重放的日志和提交日志，扫描结束后才能确定未提交的事务
+     * 之后按页号把页面分给多个线程并行重放，同一页面的日志只由一个线程按顺序处理：先 redo，再倒序 undo
+     * 不同页面的日志互不影响，所以各页面之间不需要保持原来的先后顺序
+     */
+    public static void recover(TransactionManager tm, Logger lg, PageCache pc, long ckptLsn) {
         System.out.println("Recovering...");
 
-        lg.rewind();
+        long redoFrom = -1, scanFrom = -1;
         int maxPgno = 0;
+        LongHashSet ckptActive = new LongHashSet();
+        if(ckptLsn > 0) {
+            SubArray log = lg.reader(ckptLsn).next();
+            if(log != null && log.raw[log.start] == LOG_TYPE_CHECKPOINT) {
+                CheckpointLogInfo ci = parseCheckpointLog(copy(log));
+                redoFrom = scanFrom = ci.redoLsn;
+                for (int i = 0; i < ci.active.length; i += 2) {
+                    ckptActive.add(ci.active[i]);
+                    scanFrom = Math.min(scanFrom, ci.active[i+1]);
+                }
+                maxPgno = ci.pageCount;
+                System.out.println("Recover from checkpoint at " + ckptLsn + ", redo from " + redoFrom + ".");
+            }
+        }
+
+        // 分析：一次扫描，日志直接在读取器的缓冲区上解析，只拷贝需要重放的日志
+        LongObjectMap<List<LogRef>> pages = new LongObjectMap<>();
+        LongObjectMap<Boolean> losers = new LongObjectMap<>();      // xid 是否未提交
+        LongList committed = new LongList();
+        LogReader reader = scanFrom < 0 ? lg.reader() : lg.reader(scanFrom);
         while(true) {
-            byte[] log = lg.next();
+            long lsn = reader.position();
+            SubArray log = reader.next();
             if(log == null) break;
-            int pgno;
-            if(isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                pgno = li.pgno;
-            } else {
-                UpdateLogInfo li = parseUpdateLog(log);
-                pgno = li.pgno;
+            byte type = log.raw[log.start];
+            if(type == LOG_TYPE_CHECKPOINT) {
+                // 没有检查点文件时，日志开头的部分可能已被回收，页数以日志中的检查点为准
+                maxPgno = Math.max(maxPgno, parseCheckpointLog(copy(log)).pageCount);
+                continue;
             }
+            long xid = getXid(log);
+            if(type == LOG_TYPE_COMMIT) {
+                committed.add(xid);
+                continue;
+            }
+            int pgno = getPgno(log);
             if(pgno > maxPgno) {
                 maxPgno = pgno;
             }
+            if(lsn < redoFrom && !ckptActive.contains(xid)) {
+                // redo 起点之前的修改已经落盘，检查点时已结束的事务也不需要 undo
+                continue;
+            }
+            losers.put(xid, Boolean.FALSE);
+            List<LogRef> refs = pages.get(pgno);
+            if(refs == null) {
+                refs = new ArrayList<>();
+                pages.put(pgno, refs);
+            }
+            LogRef ref = new LogRef();
+            ref.xid = xid;
+            ref.redo = lsn >= redoFrom;
+            ref.log = copy(log);
+            refs.add(ref);
         }
+
+        // XID 文件中的提交状态是延迟写入的，以日志中的提交日志为准
+        for (int i = 0; i < committed.size(); i ++) {
+            long xid = committed.get(i);
+            if(!tm.isCommitted(xid)) {
+                tm.commit(xid);
+            }
+        }
+        for (long xid : losers.keys()) {
+            losers.put(xid, tm.isActive(xid));
+        }
+
         if(maxPgno == 0) {
             maxPgno = 1;
         }
         pc.truncateByBgno(maxPgno);
         System.out.println("Truncate to " + maxPgno + " pages.");
 
-        redoTranscations(tm, lg, pc);
-        System.out.println("Redo Transactions Over.");
+        replay(pc, pages, losers);
+        System.out.println("Redo and Undo " + pages.size() + " pages Over.");
 
-        undoTranscations(tm, lg, pc);
-        System.out.println("Undo Transactions Over.");
+        losers.forEach((xid, loser) -> {
+            if(loser) {
+                tm.abort(xid);
+            }
+        });
 
         System.out.println("Recovery Over.");
     }
 
-    private static void redoTranscations(TransactionManager tm, Logger lg, PageCache pc) {
-        lg.rewind();
-        while(true) {
-            byte[] log = lg.next();
-            if(log == null) break;
-            if(isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                long xid = li.xid;
-                if(!tm.isActive(xid)) {
-                    doInsertLog(pc, log, REDO);
-                }
-            } else {
-                UpdateLogInfo xi = parseUpdateLog(log);
-                long xid = xi.xid;
-                if(!tm.isActive(xid)) {
-                    doUpdateLog(pc, log, REDO);
-                }
+    private static byte[] copy(SubArray log) {
+        return Arrays.copyOfRange(log.raw, log.start, log.end);
+    }
+
+    /**
+     * 按 pgno % n 把页面分给 n 个线程，线程数不超过 CPU 数
+     */
+    private static void replay(PageCache pc, LongObjectMap<List<LogRef>> pages, LongObjectMap<Boolean> losers) {
+        long[] pgnos = pages.keys();
+        Arrays.sort(pgnos);
+        int n = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), pgnos.length));
+        if(n == 1) {
+            for (long pgno : pgnos) {
+                replayPage(pc, (int)pgno, pages.get(pgno), losers);
             }
+            return;
         }
-    }
 
-    private static void undoTranscations(TransactionManager tm, Logger lg, PageCache pc) {
-        Map<Long, List<byte[]>> logCache = new HashMap<>();
-        lg.rewind();
-        while(true) {
-            byte[] log = lg.next();
-            if(log == null) break;
-            if(isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                long xid = li.xid;
-                if(tm.isActive(xid)) {
-                    if(!logCache.containsKey(xid)) {
-                        logCache.put(xid, new ArrayList<>());
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread[] workers = new Thread[n];
+        for (int i = 0; i < n; i ++) {
+            final int part = i;
+            workers[i] = new Thread(() -> {
+                try {
+                    for (long pgno : pgnos) {
+                        if(pgno % n == part) {
+                            replayPage(pc, (int)pgno, pages.get(pgno), losers);
+                        }
                     }
-                    logCache.get(xid).add(log);
-                }
-            } else {
-                UpdateLogInfo xi = parseUpdateLog(log);
-                long xid = xi.xid;
-                if(tm.isActive(xid)) {
-                    if(!logCache.containsKey(xid)) {
-                        logCache.put(xid, new ArrayList<>());
-                    }
-                    logCache.get(xid).add(log);
+                } catch(Exception e) {
+                    failure.compareAndSet(null, e);
                 }
+            }, "recover-" + i);
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch(InterruptedException e) {
+                Panic.panic(e);
             }
         }
+        if(failure.get() != null) {
+            Panic.panic(failure.get());
+        }
+    }
 
-        // 对所有active log进行倒序undo
-        for(Entry<Long, List<byte[]>> entry : logCache.entrySet()) {
-            List<byte[]> logs = entry.getValue();
-            for (int i = logs.size()-1; i >= 0; i --) {
-                byte[] log = logs.get(i);
-                if(isInsertLog(log)) {
-                    doInsertLog(pc, log, UNDO);
-                } else {
-                    doUpdateLog(pc, log, UNDO);
+    private static void replayPage(PageCache pc, int pgno, List<LogRef> refs, LongObjectMap<Boolean> losers) {
+        Page pg = null;
+        try {
+            pg = pc.getPage(pgno);
+        } catch(Exception e) {
+            Panic.panic(e);
+        }
+        try {
+            for (LogRef ref : refs) {
+                if(ref.redo && !losers.get(ref.xid)) {
+                    doLog(pg, ref.log, REDO);
+                }
+            }
+            // 对未提交事务的日志倒序 undo
+            for (int i = refs.size()-1; i >= 0; i --) {
+                LogRef ref = refs.get(i);
+                if(losers.get(ref.xid)) {
+                    doLog(pg, ref.log, UNDO);
                 }
             }
-            tm.abort(entry.getKey());
+        } finally {
+            pg.release();
+        }
+    }
+
+    private static void doLog(Page pg, byte[] log, int flag) {
+        if(isInsertLog(log)) {
+            doInsertLog(pg, log, flag);
+        } else if(log[OF_TYPE] == LOG_TYPE_TRUNCATE) {
+            doTruncateLog(pg, log, flag);
+        } else {
+            doUpdateLog(pg, log, flag);
+        }
+    }
+
+    private static long getXid(SubArray log) {
+        return Parser.parseLong(log.raw, log.start + OF_XID);
+    }
+
+    private static int getPgno(SubArray log) {
+        if(isInsertType(log.raw[log.start])) {
+            return Parser.parseInt(log.raw, log.start + OF_INSERT_PGNO);
         }
+        return Parser.parseInt(log.raw, log.start + OF_UPDATE_UID);
     }
 
     private static boolean isInsertLog(byte[] log) {
-        return log[0] == LOG_TYPE_INSERT;
+        return isInsertType(log[0]);
     }
 
+    private static boolean isInsertType(byte type) {
+        return type == LOG_TYPE_INSERT || type == LOG_TYPE_INSERT_LZ4;
+    }
+
+    // 完整更新日志，现在只写增量更新日志，旧日志恢复时仍可解析
     // [LogType] [XID] [UID] [OldRaw] [NewRaw]
     private static final int OF_TYPE = 0;
     private static final int OF_XID = OF_TYPE+1;
     private static final int OF_UPDATE_UID = OF_XID+8;
     private static final int OF_UPDATE_RAW = OF_UPDATE_UID+8;
 
+    // 增量更新日志，只记录 DataItem 中发生变化的几段
+    // [LogType] [XID] [UID] [N] [DeltaOffset Length OldBytes NewBytes] * N
+    // N、DeltaOffset、Length 都是2字节，DeltaOffset 为这一段在 DataItem 中的偏移，OldBytes 和 NewBytes 长度都为 Length
+    private static final int OF_DELTA_N = OF_UPDATE_RAW;
+    private static final int OF_DELTA_RANGES = OF_DELTA_N+2;
+    private static final int DELTA_RANGE_HEADER = 4;
+
+    /**
+     * 比较 DataItem 修改前后的内容，只记录不同的部分
+     * 例如 Entry.setXmax 只修改 8 字节的 XMAX，日志不再包含整行；
+     * B+ 树节点插入时 KeyNumber 在开头、新的键在后面，分成两段记录，不必包含中间未变的部分
+     * 两段之间相同的字节不超过一段的头部长度时合并为一段
+     */
     public static byte[] updateLog(long xid, DataItem di) {
-        byte[] logType = {LOG_TYPE_UPDATE};
-        byte[] xidRaw = Parser.long2Byte(xid);
-        byte[] uidRaw = Parser.long2Byte(di.getUid());
         byte[] oldRaw = di.getOldRaw();
         SubArray raw = di.getRaw();
-        byte[] newRaw = Arrays.copyOfRange(raw.raw, raw.start, raw.end);
-        return Bytes.concat(logType, xidRaw, uidRaw, oldRaw, newRaw);
+        // ranges 依次为每段的 [起点, 终点)
+        int[] ranges = new int[8];
+        int n = 0, size = OF_DELTA_RANGES;
+        int i = 0;
+        while(i < oldRaw.length) {
+            if(oldRaw[i] == raw.raw[raw.start+i]) {
+                i ++;
+                continue;
+            }
+            int end = i + 1;
+            while(end < oldRaw.length && oldRaw[end] != raw.raw[raw.start+end]) {
+                end ++;
+            }
+            if(n > 0 && i - ranges[n*2-1] <= DELTA_RANGE_HEADER) {
+                size += (end - ranges[n*2-1]) * 2;
+                ranges[n*2-1] = end;
+            } else {
+                if(n*2 == ranges.length) {
+                    ranges = Arrays.copyOf(ranges, ranges.length*2);
+                }
+                ranges[n*2] = i;
+                ranges[n*2+1] = end;
+                n ++;
+                size += DELTA_RANGE_HEADER + (end - i) * 2;
+            }
+            i = end;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put(LOG_TYPE_DELTA).putLong(xid).putLong(di.getUid()).putShort((short)n);
+        for (int k = 0; k < n; k ++) {
+            int start = ranges[k*2], length = ranges[k*2+1] - start;
+            buf.putShort((short)start).putShort((short)length);
+            buf.put(oldRaw, start, length);
+            buf.put(raw.raw, raw.start+start, length);
+        }
+        return buf.array();
     }
 
+    /**
+     * 同时解析完整更新日志和增量更新日志，完整更新日志视为从 DataItem 开头起的一段
+     */
     private static UpdateLogInfo parseUpdateLog(byte[] log) {
         UpdateLogInfo li = new UpdateLogInfo();
-        li.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_UPDATE_UID));
-        long uid = Parser.parseLong(Arrays.copyOfRange(log, OF_UPDATE_UID, OF_UPDATE_RAW));
-        li.offset = (short)(uid & ((1L << 16) - 1));
+        li.xid = Parser.parseLong(log, OF_XID);
+        long uid = Parser.parseLong(log, OF_UPDATE_UID);
+        short offset = (short)(uid & ((1L << 16) - 1));
         uid >>>= 32;
         li.pgno = (int)(uid & ((1L << 32) - 1));
-        int length = (log.length - OF_UPDATE_RAW) / 2;
-        li.oldRaw = Arrays.copyOfRange(log, OF_UPDATE_RAW, OF_UPDATE_RAW+length);
-        li.newRaw = Arrays.copyOfRange(log, OF_UPDATE_RAW+length, OF_UPDATE_RAW+length*2);
+        if(log[OF_TYPE] != LOG_TYPE_DELTA) {
+            int length = (log.length - OF_UPDATE_RAW) / 2;
+            li.offset = new short[] { offset };
+            li.oldRaw = new byte[][] { Arrays.copyOfRange(log, OF_UPDATE_RAW, OF_UPDATE_RAW+length) };
+            li.newRaw = new byte[][] { Arrays.copyOfRange(log, OF_UPDATE_RAW+length, OF_UPDATE_RAW+length*2) };
+            return li;
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(log);
+        int n = buf.getShort(OF_DELTA_N);
+        li.offset = new short[n];
+        li.oldRaw = new byte[n][];
+        li.newRaw = new byte[n][];
+        buf.position(OF_DELTA_RANGES);
+        for (int k = 0; k < n; k ++) {
+            li.offset[k] = (short)(offset + buf.getShort());
+            int length = buf.getShort();
+            li.oldRaw[k] = new byte[length];
+            li.newRaw[k] = new byte[length];
+            buf.get(li.oldRaw[k]).get(li.newRaw[k]);
+        }
         return li;
     }
 
-    private static void doUpdateLog(PageCache pc, byte[] log, int flag) {
-        int pgno;
-        short offset;
-        byte[] raw;
-        if(flag == REDO) {
-            UpdateLogInfo xi = parseUpdateLog(log);
-            pgno = xi.pgno;
-            offset = xi.offset;
-            raw = xi.newRaw;
-        } else {
-            UpdateLogInfo xi = parseUpdateLog(log);
-            pgno = xi.pgno;
-            offset = xi.offset;
-            raw = xi.oldRaw;
-        }
-        Page pg = null;
-        try {
-            pg = pc.getPage(pgno);
-        } catch (Exception e) {
-            Panic.panic(e);
-        }
-        try {
-            PageX.recoverUpdate(pg, raw, offset);
-        } finally {
-            pg.release();
+    private static void doUpdateLog(Page pg, byte[] log, int flag) {
+        UpdateLogInfo xi = parseUpdateLog(log);
+        byte[][] raws = flag == REDO ? xi.newRaw : xi.oldRaw;
+        for (int k = 0; k < raws.length; k ++) {
+            PageX.recoverUpdate(pg, raws[k], xi.offset[k]);
         }
     }
 
@@ -206,7 +380,26 @@ public class Recover {
     private static final int OF_INSERT_OFFSET = OF_INSERT_PGNO+4;
     private static final int OF_INSERT_RAW = OF_INSERT_OFFSET+2;
 
+    // 压缩的插入日志
+    // [LogType] [XID] [Pgno] [Offset] [RawSize] [LZ4(Raw)]
+    // RawSize 2字节，压缩前 Raw 的长度
+    private static final int OF_INSERT_RAW_SIZE = OF_INSERT_RAW;
+    private static final int OF_INSERT_LZ4 = OF_INSERT_RAW_SIZE+2;
+
+    /**
+     * 较大的数据先尝试 LZ4 压缩，压缩后更短时写压缩的插入日志，否则写原样的插入日志
+     */
     public static byte[] insertLog(long xid, Page pg, byte[] raw) {
+        if(raw.length >= COMPRESS_THRESHOLD) {
+            byte[] log = new byte[OF_INSERT_LZ4 + LZ4.maxCompressedLength(raw.length)];
+            int length = LZ4.compress(raw, 0, raw.length, log, OF_INSERT_LZ4);
+            if(OF_INSERT_LZ4 + length < OF_INSERT_RAW + raw.length) {
+                ByteBuffer buf = ByteBuffer.wrap(log);
+                buf.put(LOG_TYPE_INSERT_LZ4).putLong(xid).putInt(pg.getPageNumber()).putShort(PageX.getFSO(pg));
+                buf.putShort((short)raw.length);
+                return Arrays.copyOf(log, OF_INSERT_LZ4 + length);
+            }
+        }
         byte[] logTypeRaw = {LOG_TYPE_INSERT};
         byte[] xidRaw = Parser.long2Byte(xid);
         byte[] pgnoRaw = Parser.int2Byte(pg.getPageNumber());
@@ -214,30 +407,84 @@ public class Recover {
         return Bytes.concat(logTypeRaw, xidRaw, pgnoRaw, offsetRaw, raw);
     }
 
-    private static InsertLogInfo parseInsertLog(byte[] log) {
+    private static InsertLogInfo parseInsertLog(byte[] log) throws Exception {
         InsertLogInfo li = new InsertLogInfo();
         li.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_INSERT_PGNO));
         li.pgno = Parser.parseInt(Arrays.copyOfRange(log, OF_INSERT_PGNO, OF_INSERT_OFFSET));
         li.offset = Parser.parseShort(Arrays.copyOfRange(log, OF_INSERT_OFFSET, OF_INSERT_RAW));
-        li.raw = Arrays.copyOfRange(log, OF_INSERT_RAW, log.length);
+        if(log[OF_TYPE] == LOG_TYPE_INSERT_LZ4) {
+            int size = Parser.parseShort(Arrays.copyOfRange(log, OF_INSERT_RAW_SIZE, OF_INSERT_LZ4)) & 0xffff;
+            li.raw = new byte[size];
+            if(LZ4.decompress(log, OF_INSERT_LZ4, log.length - OF_INSERT_LZ4, li.raw, 0, size) != size) {
+                throw Error.BadLogFileException;
+            }
+        } else {
+            li.raw = Arrays.copyOfRange(log, OF_INSERT_RAW, log.length);
+        }
         return li;
     }
 
-    private static void doInsertLog(PageCache pc, byte[] log, int flag) {
-        InsertLogInfo li = parseInsertLog(log);
-        Page pg = null;
+    private static void doInsertLog(Page pg, byte[] log, int flag) {
+        InsertLogInfo li = null;
         try {
-            pg = pc.getPage(li.pgno);
+            li = parseInsertLog(log);
         } catch(Exception e) {
             Panic.panic(e);
+            return;
         }
-        try {
-            if(flag == UNDO) {
-                DataItem.setDataItemRawInvalid(li.raw);
-            }
-            PageX.recoverInsert(pg, li.raw, li.offset);
-        } finally {
-            pg.release();
+        if(flag == UNDO) {
+            DataItem.setDataItemRawInvalid(li.raw);
+        }
+        PageX.recoverInsert(pg, li.raw, li.offset);
+    }
+
+    // 回收页面末尾的已删除数据项，由 SUPER_XID 写入，只需 redo
+    // [LogType] [XID] [Pgno] [Offset]
+    // Pgno 与更新日志中 UID 的高 4 字节位置相同，Offset 为新的空闲位置
+    private static final int OF_TRUNCATE_PGNO = OF_XID+8;
+    private static final int OF_TRUNCATE_OFFSET = OF_TRUNCATE_PGNO+4;
+
+    public static byte[] truncateLog(long xid, int pgno, short offset) {
+        return ByteBuffer.allocate(OF_TRUNCATE_OFFSET+2).put(LOG_TYPE_TRUNCATE).putLong(xid).putInt(pgno).putShort(offset).array();
+    }
+
+    private static void doTruncateLog(Page pg, byte[] log, int flag) {
+        if(flag == REDO) {
+            PageX.truncate(pg, ByteBuffer.wrap(log).getShort(OF_TRUNCATE_OFFSET));
+        }
+    }
+
+    // [LogType] [XID]
+    public static byte[] commitLog(long xid) {
+        return ByteBuffer.allocate(OF_XID+8).put(LOG_TYPE_COMMIT).putLong(xid).array();
+    }
+
+    // [LogType] [RedoLSN] [PageCount] [N] [XID FirstLSN] * N
+    private static final int OF_CKPT_REDO = OF_TYPE+1;
+    private static final int OF_CKPT_PAGES = OF_CKPT_REDO+8;
+    private static final int OF_CKPT_N = OF_CKPT_PAGES+4;
+    private static final int OF_CKPT_ACTIVE = OF_CKPT_N+4;
+
+    public static byte[] checkpointLog(long redoLsn, int pageCount, long[] active) {
+        ByteBuffer buf = ByteBuffer.allocate(OF_CKPT_ACTIVE + active.length * 8);
+        buf.put(LOG_TYPE_CHECKPOINT).putLong(redoLsn).putInt(pageCount).putInt(active.length / 2);
+        for (long v : active) {
+            buf.putLong(v);
+        }
+        return buf.array();
+    }
+
+    private static CheckpointLogInfo parseCheckpointLog(byte[] log) {
+        ByteBuffer buf = ByteBuffer.wrap(log);
+        CheckpointLogInfo ci = new CheckpointLogInfo();
+        ci.redoLsn = buf.getLong(OF_CKPT_REDO);
+        ci.pageCount = buf.getInt(OF_CKPT_PAGES);
+        int n = buf.getInt(OF_CKPT_N);
+        ci.active = new long[n * 2];
+        buf.position(OF_CKPT_ACTIVE);
+        for (int i = 0; i < ci.active.length; i ++) {
+            ci.active[i] = buf.getLong();
         }
+        return ci;
     }
 }
@@ -46,4 +46,18 @@ public interface DataItem {
     public static void setDataItemRawInvalid(byte[] raw) {
         raw[DataItemImpl.OF_VALID] = (byte)1;
     }
+
+    public static void setDataItemRawDeleted(SubArray raw) {
+        raw.raw[raw.start+DataItemImpl.OF_VALID] = (byte)2;
+    }
+
+    // 页面中 offset 处的数据项是否已被物理删除
+    public static boolean isDataItemRawDeleted(byte[] page, int offset) {
+        return page[offset+DataItemImpl.OF_VALID] == (byte)2;
+    }
+
+    // 页面中 offset 处的数据项的总长度
+    public static int getDataItemRawLength(byte[] page, int offset) {
+        return DataItemImpl.OF_DATA + Parser.parseShort(Arrays.copyOfRange(page, offset+DataItemImpl.OF_SIZE, offset+DataItemImpl.OF_DATA));
+    }
 }
@@ -11,7 +11,7 @@ import com.peng.minidb.backend.dm.page.Page;
 /**
  * dataItem 结构如下：
  * [ValidFlag] [DataSize] [Data]
- * ValidFlag 1字节，0为合法，1为非法
+ * ValidFlag 1字节，0为合法，1为非法，2为已物理删除：不再被引用，位于页面末尾时空间可以复用
  * DataSize  2字节，标识Data的长度
  */
 public class DataItemImpl implements DataItem {
@@ -51,6 +51,7 @@ public class DataItemImpl implements DataItem {
     @Override
     public void before() {
         wLock.lock();
+        dm.beginModify();
         pg.setDirty(true);
         System.arraycopy(raw.raw, raw.start, oldRaw, 0, oldRaw.length);
     }
@@ -58,12 +59,14 @@ public class DataItemImpl implements DataItem {
     @Override
     public void unBefore() {
         System.arraycopy(oldRaw, 0, raw.raw, raw.start, oldRaw.length);
+        dm.endModify();
         wLock.unlock();
     }
 
     @Override
     public void after(long xid) {
         dm.logDataItem(xid, this);
+        dm.endModify();
         wLock.unlock();
     }
 
@@ -0,0 +1,106 @@
+package com.peng.minidb.backend.dm.logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.peng.minidb.backend.common.SubArray;
+import com.peng.minidb.backend.utils.CRC32C;
+import com.peng.minidb.backend.utils.Panic;
+import com.peng.minidb.backend.utils.Parser;
+
+/**
+ * 顺序读取日志
+ *
+ * 每次从日志段读入一大块到内部缓冲区，在缓冲区上直接解析和校验日志，
+ * next 返回的 SubArray 指向内部缓冲区中的 Data 部分，不为每条日志分配内存
+ * 返回的内容只在下一次调用 next 之前有效，需要保留时由调用者拷贝
+ * 一条日志跨越缓冲区结尾时，把剩余部分移到缓冲区开头再继续读；日志比缓冲区大时扩容
+ */
+public class LogReader {
+
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    private LogSegments segments;
+    private byte[] block;
+    private long blockLsn;      // block[0] 的 LSN
+    private int start;          // 下一条日志在 block 中的位置
+    private int end;            // block 中已读入的数据的结尾
+    private boolean eof;        // 已读到不存在的段
+    private SubArray data;      // 每次返回同一个对象
+
+    LogReader(LogSegments segments, long lsn) {
+        this.segments = segments;
+        this.block = new byte[BLOCK_SIZE];
+        this.blockLsn = lsn;
+        this.data = new SubArray(block, 0, 0);
+    }
+
+    /**
+     * 下一次 next 读出的日志的 LSN；next 返回 null 后即为有效日志的结尾
+     */
+    public long position() {
+        return blockLsn + start;
+    }
+
+    /**
+     * 读出下一条日志的 Data，越过日志结尾、校验失败或 LSN 与位置不符时返回 null
+     */
+    public SubArray next() {
+        int size;
+        try {
+            if(!fill(LoggerImpl.OF_DATA)) {
+                return null;
+            }
+            size = Parser.parseInt(block, start + LoggerImpl.OF_SIZE);
+            if(size < 0 || size > Integer.MAX_VALUE - LoggerImpl.OF_DATA || Parser.parseLong(block, start + LoggerImpl.OF_LSN) != position()) {
+                return null;
+            }
+            if(!fill(LoggerImpl.OF_DATA + size)) {
+                return null;
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+            return null;
+        }
+
+        int dataStart = start + LoggerImpl.OF_DATA;
+        int crc = CRC32C.compute(block, start + LoggerImpl.OF_SIZE, 4);
+        crc = CRC32C.update(crc, block, dataStart, size);
+        crc = CRC32C.update(crc, block, start + LoggerImpl.OF_LSN, 8);
+        if(crc != Parser.parseInt(block, start + LoggerImpl.OF_CHECKSUM)) {
+            return null;
+        }
+        data.raw = block;
+        data.start = dataStart;
+        data.end = dataStart + size;
+        start = data.end;
+        return data;
+    }
+
+    // 保证 block[start, start+n) 已读入，日志已经结束时返回 false
+    private boolean fill(int n) throws IOException {
+        while(end - start < n) {
+            if(eof) {
+                return false;
+            }
+            if(start + n > block.length) {
+                int len = end - start;
+                byte[] b = n > block.length ? new byte[Math.max(n, block.length << 1)] : block;
+                System.arraycopy(block, start, b, 0, len);
+                block = b;
+                blockLsn += start;
+                start = 0;
+                end = len;
+            }
+            // 每次最多读到当前段的结尾
+            long pos = blockLsn + end;
+            int want = (int)Math.min(block.length - end, LogSegments.SEGMENT_SIZE - pos % LogSegments.SEGMENT_SIZE);
+            ByteBuffer buf = ByteBuffer.wrap(block, end, want);
+            if(!segments.read(buf, blockLsn)) {
+                eof = true;
+            }
+            end = buf.position();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,390 @@
+package com.peng.minidb.backend.dm.logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.peng.minidb.backend.common.LongObjectMap;
+import com.peng.minidb.backend.utils.CRC32C;
+import com.peng.minidb.backend.utils.Panic;
+import com.peng.minidb.common.Error;
+
+/**
+ * 分段保存的日志
+ *
+ * 日志是一条逻辑上连续的字节流，LSN 即在其中的偏移，按 SEGMENT_SIZE 切分保存：
+ * 第 n 段保存 [n * SEGMENT_SIZE, (n+1) * SEGMENT_SIZE)，文件名为 <path>.log.<n>
+ * <path>.log 是清单文件，格式为 [Magic] [SegmentSize] [FirstLSN] [Checksum]，
+ * FirstLSN 是仍需保留的第一条日志，它所在的段之前的段都可以回收，更新时先写临时文件再原子替换
+ *
+ * 段文件创建时就写满到 SEGMENT_SIZE，追加日志不改变文件长度，fsync 不需要刷文件元数据
+ * 开始写某一段时，后台线程准备好下一段；检查点之后不再需要的旧段改名为后面的段复用，多余的删除
+ * 复用的段中残留的旧日志 LSN 与所在位置不符，读到时视为日志结尾
+ */
+class LogSegments implements Runnable {
+
+    static final int SEGMENT_SIZE = 16 << 20;
+    private static final int SPARE_SEGMENTS = 2;        // 当前段之后最多保留的预备段
+    private static final int MANIFEST_SIZE = 20;
+    private static final String SEGMENT_TMP_SUFFIX = ".tmp";
+    private static final String MANIFEST_TMP_SUFFIX = "_tmp";
+
+    private String path;
+
+    // 以下由 lock 保护
+    private long firstLsn;
+    private long firstSegment;                          // firstLsn 所在的段
+    private long lastSegment;                           // 已存在的最大段号
+    private long wanted;                                // 应当已准备好的最大段号
+    private LongObjectMap<FileChannel> channels;        // 已打开的段
+    private Lock lock;
+    private Condition hasWork;
+
+    private volatile boolean closed;
+    private Thread thread;
+
+    private LogSegments(String path, long firstLsn) {
+        this.path = path;
+        this.firstLsn = firstLsn;
+        this.firstSegment = firstLsn / SEGMENT_SIZE;
+        this.channels = new LongObjectMap<>();
+        this.lock = new ReentrantLock();
+        this.hasWork = lock.newCondition();
+        long last = firstSegment - 1;
+        while(segmentFile(last + 1).exists()) {
+            last ++;
+        }
+        this.lastSegment = last;
+        this.wanted = last;
+        new File(path + LoggerImpl.LOG_SUFFIX + SEGMENT_TMP_SUFFIX).delete();
+        this.thread = new Thread(this, "log-segment");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * 清单文件已由调用者创建，写入清单并准备好第一个段
+     */
+    static LogSegments create(String path) {
+        writeManifest(path, SEGMENT_SIZE);
+        LogSegments segs = new LogSegments(path, SEGMENT_SIZE);
+        segs.prepare(1);
+        segs.thread.start();
+        return segs;
+    }
+
+    static LogSegments open(String path) {
+        byte[] raw = null;
+        try {
+            raw = Files.readAllBytes(new File(path + LoggerImpl.LOG_SUFFIX).toPath());
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(raw);
+        if(raw.length != MANIFEST_SIZE || buf.getInt(0) != LoggerImpl.LOG_MAGIC || buf.getInt(4) != SEGMENT_SIZE
+                || buf.getInt(16) != CRC32C.compute(raw, 0, 16)) {
+            Panic.panic(Error.BadLogFileException);
+        }
+        LogSegments segs = new LogSegments(path, buf.getLong(8));
+        segs.thread.start();
+        return segs;
+    }
+
+    private static void writeManifest(String path, long firstLsn) {
+        ByteBuffer buf = ByteBuffer.allocate(MANIFEST_SIZE);
+        buf.putInt(LoggerImpl.LOG_MAGIC).putInt(SEGMENT_SIZE).putLong(firstLsn);
+        buf.putInt(CRC32C.compute(buf.array(), 0, 16));
+        File tmp = new File(path + LoggerImpl.LOG_SUFFIX + MANIFEST_TMP_SUFFIX);
+        try(FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(buf.array());
+            out.getFD().sync();
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        try {
+            Files.move(tmp.toPath(), new File(path + LoggerImpl.LOG_SUFFIX).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    private File segmentFile(long segno) {
+        return new File(String.format("%s%s.%010d", path, LoggerImpl.LOG_SUFFIX, segno));
+    }
+
+    long firstLsn() {
+        lock.lock();
+        try {
+            return firstLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int count() {
+        lock.lock();
+        try {
+            return (int)(lastSegment - firstSegment + 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 读满 buf，读到不存在的段时返回 false
+     */
+    boolean read(ByteBuffer buf, long lsn) throws IOException {
+        while(buf.hasRemaining()) {
+            long pos = lsn + buf.position();
+            FileChannel fc = channel(pos / SEGMENT_SIZE, false);
+            if(fc == null) {
+                return false;
+            }
+            int limit = buf.limit();
+            buf.limit(buf.position() + (int)Math.min(buf.remaining(), SEGMENT_SIZE - pos % SEGMENT_SIZE));
+            try {
+                while(buf.hasRemaining()) {
+                    if(fc.read(buf, pos % SEGMENT_SIZE + buf.position() - (pos - lsn)) < 0) {
+                        return false;
+                    }
+                }
+            } finally {
+                buf.limit(limit);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把 buf 写到 lsn 处，可以跨段；写入新的段时请求准备它的下一段
+     */
+    void write(ByteBuffer buf, long lsn) throws IOException {
+        while(buf.hasRemaining()) {
+            long pos = lsn + buf.position();
+            long segno = pos / SEGMENT_SIZE;
+            FileChannel fc = channel(segno, true);
+            int limit = buf.limit();
+            buf.limit(buf.position() + (int)Math.min(buf.remaining(), SEGMENT_SIZE - pos % SEGMENT_SIZE));
+            try {
+                while(buf.hasRemaining()) {
+                    fc.write(buf, pos % SEGMENT_SIZE + buf.position() - (pos - lsn));
+                }
+            } finally {
+                buf.limit(limit);
+            }
+            requestAhead(segno + 1);
+        }
+    }
+
+    /**
+     * fsync [from, to) 所在的段
+     */
+    void force(long from, long to) throws IOException {
+        for (long segno = from / SEGMENT_SIZE; segno <= (to - 1) / SEGMENT_SIZE; segno ++) {
+            FileChannel fc = channel(segno, false);
+            if(fc != null) {
+                fc.force(false);
+            }
+        }
+    }
+
+    /**
+     * 丢弃 lsn 之后的内容：当前段剩余部分清零，之后的段删除
+     * 崩溃前写了一半的日志之后可能还有已落盘的日志，不清除的话新日志写完后它们可能被当作有效日志读出
+     */
+    void discardAfter(long lsn) throws IOException {
+        long segno = lsn / SEGMENT_SIZE;
+        FileChannel fc = channel(segno, true);
+        // 正常关闭后剩余部分本来就是 0，只改写不为 0 的块
+        ByteBuffer block = ByteBuffer.allocate(64 << 10);
+        ByteBuffer zeros = ByteBuffer.allocate(block.capacity());
+        long off = lsn % SEGMENT_SIZE;
+        while(off < SEGMENT_SIZE) {
+            int len = (int)Math.min(block.capacity(), SEGMENT_SIZE - off);
+            block.clear();
+            block.limit(len);
+            while(block.hasRemaining() && fc.read(block, off + block.position()) >= 0) {
+            }
+            if(!isZero(block.array(), block.position())) {
+                zeros.clear();
+                zeros.limit(len);
+                while(zeros.hasRemaining()) {
+                    fc.write(zeros, off + zeros.position());
+                }
+            }
+            off += len;
+        }
+        fc.force(false);
+        lock.lock();
+        try {
+            for (long k = segno + 1; k <= lastSegment; k ++) {
+                closeChannel(k);
+                segmentFile(k).delete();
+            }
+            lastSegment = segno;
+            wanted = segno;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean isZero(byte[] b, int len) {
+        for (int i = 0; i < len; i ++) {
+            if(b[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 不再需要 lsn 之前的日志，lsn 必须是一条日志的开头
+     * 先更新清单，再把整段都在 lsn 之前的旧段改名为预备段或删除
+     */
+    void removeBefore(long lsn) {
+        lock.lock();
+        try {
+            if(lsn <= firstLsn) {
+                return;
+            }
+            writeManifest(path, lsn);
+            firstLsn = lsn;
+            long first = lsn / SEGMENT_SIZE;
+            for (long k = firstSegment; k < first; k ++) {
+                closeChannel(k);
+                File f = segmentFile(k);
+                if(lastSegment < wanted + SPARE_SEGMENTS && f.renameTo(segmentFile(lastSegment + 1))) {
+                    lastSegment ++;
+                } else {
+                    f.delete();
+                }
+            }
+            firstSegment = first;
+        } catch(IOException e) {
+            Panic.panic(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private FileChannel channel(long segno, boolean create) throws IOException {
+        lock.lock();
+        try {
+            FileChannel fc = channels.get(segno);
+            if(fc != null) {
+                return fc;
+            }
+            File f = segmentFile(segno);
+            if(!f.exists()) {
+                if(!create) {
+                    return null;
+                }
+                // 预备段还没准备好，直接创建，文件随写入增长
+                lastSegment = Math.max(lastSegment, segno);
+            }
+            fc = new RandomAccessFile(f, "rw").getChannel();
+            channels.put(segno, fc);
+            return fc;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 调用时需持有 lock
+    private void closeChannel(long segno) throws IOException {
+        FileChannel fc = channels.remove(segno);
+        if(fc != null) {
+            fc.close();
+        }
+    }
+
+    private void requestAhead(long segno) {
+        lock.lock();
+        try {
+            if(segno > wanted) {
+                wanted = segno;
+                hasWork.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        while(true) {
+            long segno;
+            lock.lock();
+            try {
+                while(!closed && lastSegment >= wanted) {
+                    hasWork.awaitUninterruptibly();
+                }
+                if(closed) {
+                    return;
+                }
+                segno = lastSegment + 1;
+            } finally {
+                lock.unlock();
+            }
+            prepare(segno);
+        }
+    }
+
+    /**
+     * 写一个填满 0 的临时文件，再改名为第 segno 段；期间该段已被创建时放弃
+     */
+    private void prepare(long segno) {
+        File tmp = new File(path + LoggerImpl.LOG_SUFFIX + SEGMENT_TMP_SUFFIX);
+        try(FileOutputStream out = new FileOutputStream(tmp)) {
+            byte[] zeros = new byte[64 << 10];
+            for (int off = 0; off < SEGMENT_SIZE; off += zeros.length) {
+                out.write(zeros);
+            }
+            out.getFD().sync();
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        lock.lock();
+        try {
+            if(segno == lastSegment + 1 && tmp.renameTo(segmentFile(segno))) {
+                lastSegment = segno;
+            } else {
+                tmp.delete();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            hasWork.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
+        lock.lock();
+        try {
+            for (long segno : channels.keys()) {
+                closeChannel(segno);
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
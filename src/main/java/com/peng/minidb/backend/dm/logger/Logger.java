@@ -1,21 +1,30 @@
 package com.peng.minidb.backend.dm.logger;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.util.Map;
 
 import com.peng.minidb.backend.utils.Panic;
-import com.peng.minidb.backend.utils.Parser;
 import com.peng.minidb.common.Error;
 
 public interface Logger {
-    void log(byte[] data);
+    // 返回日志的 LSN
+    long log(byte[] data);
+    void flush();
+    // 把写日志和 fsync 的统计写入 out
+    void status(Map<String, Object> out);
     void truncate(long x) throws Exception;
+    // 回收 lsn 之前的日志
+    void removeBefore(long lsn);
     byte[] next();
     void rewind();
+    // 从 lsn 处开始读
+    void seek(long lsn);
+    // 从第一条日志开始的顺序读取器
+    LogReader reader();
+    // 从 lsn 处开始的顺序读取器
+    LogReader reader(long lsn);
+    // 下一条日志的 LSN
+    long nextLsn();
     void close();
 
     public static Logger create(String path) {
@@ -31,25 +40,9 @@ public interface Logger {
             Panic.panic(Error.FileCannotRWException);
         }
 
-        FileChannel fc = null;
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
-        } catch (FileNotFoundException e) {
-           Panic.panic(e);
-        }
-
-        ByteBuffer buf = ByteBuffer.wrap(Parser.int2Byte(0));
-        try {
-            fc.position(0);
-            fc.write(buf);
-            fc.force(false);
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
-
-        return new LoggerImpl(raf, fc, 0);
+        LoggerImpl lg = new LoggerImpl(LogSegments.create(path));
+        lg.init();
+        return lg;
     }
 
     public static Logger open(String path) {
@@ -61,16 +54,7 @@ public interface Logger {
             Panic.panic(Error.FileCannotRWException);
         }
 
-        FileChannel fc = null;
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
-        } catch (FileNotFoundException e) {
-           Panic.panic(e);
-        }
-
-        LoggerImpl lg = new LoggerImpl(raf, fc);
+        LoggerImpl lg = new LoggerImpl(LogSegments.open(path));
         lg.init();
 
         return lg;
@@ -1,205 +1,262 @@
 package com.peng.minidb.backend.dm.logger;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-import com.google.common.primitives.Bytes;
-
+import com.peng.minidb.backend.common.CacheStats;
+import com.peng.minidb.backend.common.LatencyHistogram;
+import com.peng.minidb.backend.common.SubArray;
+import com.peng.minidb.backend.utils.CRC32C;
 import com.peng.minidb.backend.utils.Panic;
 import com.peng.minidb.backend.utils.Parser;
-import com.peng.minidb.common.Error;
 
 /**
  * 日志文件读写
  * 
- * 日志文件标准格式为：
- * [XChecksum] [Log1] [Log2] ... [LogN] [BadTail]
- * XChecksum 为后续所有日志计算的Checksum，int类型
+ * 日志分段保存，见 LogSegments，逻辑上的格式为：
+ * [Log1] [Log2] ... [LogN] [BadTail]
  * 
  * 每条正确日志的格式为：
- * [Size] [Checksum] [Data]
+ * [Size] [Checksum] [LSN] [Data]
  * Size 4字节int 标识Data长度
- * Checksum 4字节int
+ * Checksum 4字节int，对 Size、Data、LSN 计算的 CRC32C
+ * LSN 8字节long，日志在日志流中的起始偏移，单调递增
+ * 每条日志可以独立校验，从头读到第一条校验失败或 LSN 对不上的日志即为结尾，之后的部分是 BadTail
+ *
+ * 组提交：log 只把日志追加到内存缓冲区，不写文件
+ * 需要持久化时（事务提交、数据页写出前）调用 flush，第一个到达的线程负责把整个缓冲区写出并 fsync，
+ * 期间到达的线程继续追加到另一块缓冲区并等待，由下一次 fsync 一并覆盖
  */
 public class LoggerImpl implements Logger {
 
-    private static final int SEED = 13331;
+    static final int LOG_MAGIC = 0x4D4C4732;           // "MLG2"，写在清单文件中
 
-    private static final int OF_SIZE = 0;
-    private static final int OF_CHECKSUM = OF_SIZE + 4;
-    private static final int OF_DATA = OF_CHECKSUM + 4;
+    static final int OF_SIZE = 0;
+    static final int OF_CHECKSUM = OF_SIZE + 4;
+    static final int OF_LSN = OF_CHECKSUM + 4;
+    static final int OF_DATA = OF_LSN + 8;
     
     public static final String LOG_SUFFIX = ".log";
 
-    private RandomAccessFile file;
-    private FileChannel fc;
+    private static final int BUFFER_SIZE = 1 << 20;     // 缓冲区超过 1MB 时由追加者直接刷盘
+
+    private LogSegments segments;
     private Lock lock;
 
-    private long position;  // 当前日志指针的位置
-    private long fileSize;  // 初始化时记录，log操作不更新
-    private int xChecksum;
+    private long position;      // 当前日志指针的位置
+    private LogReader cursor;   // next 使用的读取器，seek / rewind 后重新创建
 
-    LoggerImpl(RandomAccessFile raf, FileChannel fc) {
-        this.file = raf;
-        this.fc = fc;
-        lock = new ReentrantLock();
-    }
+    // 以下由 lock 保护
+    private byte[] buffer;          // 尚未写出的日志
+    private int bufferLen;
+    private byte[] spare;           // 正在写出的缓冲区写完后回到这里
+    private long bufferStart;       // 缓冲区第一个字节的 LSN
+    private volatile long durable;  // 此偏移之前的日志都已 fsync
+    private boolean flushing;       // 是否有线程正在写出
+    private Condition flushed;
+
+    // 统计
+    private LongAdder records;
+    private LongAdder bytes;
+    private volatile long syncs;
+    private LatencyHistogram syncLatency;
 
-    LoggerImpl(RandomAccessFile raf, FileChannel fc, int xChecksum) {
-        this.file = raf;
-        this.fc = fc;
-        this.xChecksum = xChecksum;
+    LoggerImpl(LogSegments segments) {
+        this.segments = segments;
         lock = new ReentrantLock();
+        flushed = lock.newCondition();
+        buffer = new byte[BUFFER_SIZE];
+        spare = new byte[BUFFER_SIZE];
+        records = new LongAdder();
+        bytes = new LongAdder();
+        syncLatency = new LatencyHistogram();
     }
 
     void init() {
-        long size = 0;
-        try {
-            size = file.length();
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
-        if(size < 4) {
-            Panic.panic(Error.BadLogFileException);
-        }
-
-        ByteBuffer raw = ByteBuffer.allocate(4);
-        try {
-            fc.position(0);
-            fc.read(raw);
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
-        int xChecksum = Parser.parseInt(raw.array());
-        this.fileSize = size;
-        this.xChecksum = xChecksum;
-
         checkAndRemoveTail();
     }
 
-    // 检查并移除bad tail
+    // 检查并移除bad tail，遇到第一条无效日志即停止
     private void checkAndRemoveTail() {
-        rewind();
-
-        int xCheck = 0;
-        while(true) {
-            byte[] log = internNext();
-            if(log == null) break;
-            xCheck = calChecksum(xCheck, log);
-        }
-        if(xCheck != xChecksum) {
-            Panic.panic(Error.BadLogFileException);
+        LogReader reader = reader();
+        while(reader.next() != null) {
         }
 
+        long tail = reader.position();
         try {
-            truncate(position);
+            truncate(tail);
         } catch (Exception e) {
             Panic.panic(e);
         }
-        try {
-            file.seek(position);
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
+        bufferStart = durable = tail;
         rewind();
     }
 
-    private int calChecksum(int xCheck, byte[] log) {
-        for (byte b : log) {
-            xCheck = xCheck * SEED + b;
+    /**
+     * 追加到缓冲区并返回日志的 LSN，返回后日志不一定已落盘，需要持久化时调用 flush
+     * Size 和 Data 的校验在锁外计算，锁内只需确定 LSN 并在此基础上补算 8 个字节
+     */
+    @Override
+    public long log(byte[] data) {
+        byte[] size = Parser.int2Byte(data.length);
+        int crc = CRC32C.update(CRC32C.compute(size, 0, size.length), data, 0, data.length);
+        int length = OF_DATA + data.length;
+        long lsn, end;
+        lock.lock();
+        try {
+            if(bufferLen + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, bufferLen + length));
+            }
+            lsn = bufferStart + bufferLen;
+            int off = bufferLen;
+            putLong(buffer, off + OF_LSN, lsn);
+            putInt(buffer, off + OF_SIZE, data.length);
+            putInt(buffer, off + OF_CHECKSUM, CRC32C.update(crc, buffer, off + OF_LSN, 8));
+            System.arraycopy(data, 0, buffer, off + OF_DATA, data.length);
+            bufferLen += length;
+            end = lsn + length;
+        } finally {
+            lock.unlock();
+        }
+        records.increment();
+        bytes.add(length);
+        if(end - durable >= BUFFER_SIZE) {
+            flushTo(end);
         }
-        return xCheck;
+        return lsn;
     }
 
+    /**
+     * 等待此前追加的所有日志落盘，事务提交和数据页写出前调用
+     */
     @Override
-    public void log(byte[] data) {
-        byte[] log = wrapLog(data);
-        ByteBuffer buf = ByteBuffer.wrap(log);
+    public void flush() {
+        flushTo(nextLsn());
+    }
+
+    /**
+     * 等待 target 之前的日志落盘
+     * 没有线程在写出时，当前线程取走整个缓冲区，写出后 fsync 一次
+     */
+    private void flushTo(long target) {
         lock.lock();
         try {
-            fc.position(fc.size());
-            fc.write(buf);
-        } catch(IOException e) {
-            Panic.panic(e);
+            while(durable < target) {
+                if(flushing) {
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+                flushing = true;
+                byte[] data = buffer;
+                int len = bufferLen;
+                long pos = bufferStart;
+                buffer = spare;
+                bufferLen = 0;
+                bufferStart = pos + len;
+                lock.unlock();
+                try {
+                    long begin = System.nanoTime();
+                    segments.write(ByteBuffer.wrap(data, 0, len), pos);
+                    segments.force(pos, pos + len);
+                    syncLatency.record(System.nanoTime() - begin);
+                } catch(IOException e) {
+                    Panic.panic(e);
+                } finally {
+                    lock.lock();
+                }
+                spare = data.length > BUFFER_SIZE ? new byte[BUFFER_SIZE] : data;
+                durable = pos + len;
+                syncs ++;
+                flushing = false;
+                flushed.signalAll();
+            }
         } finally {
             lock.unlock();
         }
-        updateXChecksum(log);
     }
 
-    private void updateXChecksum(byte[] log) {
-        this.xChecksum = calChecksum(this.xChecksum, log);
-        try {
-            fc.position(0);
-            fc.write(ByteBuffer.wrap(Parser.int2Byte(xChecksum)));
-            fc.force(false);
-        } catch(IOException e) {
-            Panic.panic(e);
-        }
+    @Override
+    public void status(Map<String, Object> out) {
+        out.put("log.records", records.sum());
+        out.put("log.bytes", bytes.sum());
+        out.put("log.syncs", syncs);
+        out.put("log.segments", segments.count());
+        CacheStats.reportLatency("log.sync", syncLatency, out);
     }
 
-    private byte[] wrapLog(byte[] data) {
-        byte[] checksum = Parser.int2Byte(calChecksum(0, data));
-        byte[] size = Parser.int2Byte(data.length);
-        return Bytes.concat(size, checksum, data);
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte)(v >>> 24);
+        b[off + 1] = (byte)(v >>> 16);
+        b[off + 2] = (byte)(v >>> 8);
+        b[off + 3] = (byte)v;
+    }
+
+    private static void putLong(byte[] b, int off, long v) {
+        putInt(b, off, (int)(v >>> 32));
+        putInt(b, off + 4, (int)v);
     }
 
     @Override
     public void truncate(long x) throws Exception {
         lock.lock();
         try {
-            fc.truncate(x);
+            segments.discardAfter(x);
         } finally {
             lock.unlock();
         }
     }
 
-    private byte[] internNext() {
-        if(position + OF_DATA >= fileSize) {
-            return null;
-        }
-        ByteBuffer tmp = ByteBuffer.allocate(4);
-        try {
-            fc.position(position);
-            fc.read(tmp);
-        } catch(IOException e) {
-            Panic.panic(e);
-        }
-        int size = Parser.parseInt(tmp.array());
-        if(position + size + OF_DATA > fileSize) {
-            return null;
-        }
+    /**
+     * 检查点之后调用，lsn 之前的日志不再需要，回收其所在的段
+     */
+    @Override
+    public void removeBefore(long lsn) {
+        segments.removeBefore(lsn);
+    }
 
-        ByteBuffer buf = ByteBuffer.allocate(OF_DATA + size);
+    @Override
+    public byte[] next() {
+        lock.lock();
         try {
-            fc.position(position);
-            fc.read(buf);
-        } catch(IOException e) {
-            Panic.panic(e);
+            if(cursor == null) {
+                cursor = new LogReader(segments, position);
+            }
+            SubArray log = cursor.next();
+            if(log == null) return null;
+            position = cursor.position();
+            return Arrays.copyOfRange(log.raw, log.start, log.end);
+        } finally {
+            lock.unlock();
         }
+    }
 
-        byte[] log = buf.array();
-        int checkSum1 = calChecksum(0, Arrays.copyOfRange(log, OF_DATA, log.length));
-        int checkSum2 = Parser.parseInt(Arrays.copyOfRange(log, OF_CHECKSUM, OF_DATA));
-        if(checkSum1 != checkSum2) {
-            return null;
-        }
-        position += log.length;
-        return log;
+    @Override
+    public void seek(long lsn) {
+        position = lsn;
+        cursor = null;
     }
 
     @Override
-    public byte[] next() {
+    public LogReader reader() {
+        return new LogReader(segments, segments.firstLsn());
+    }
+
+    @Override
+    public LogReader reader(long lsn) {
+        return new LogReader(segments, lsn);
+    }
+
+    @Override
+    public long nextLsn() {
         lock.lock();
         try {
-            byte[] log = internNext();
-            if(log == null) return null;
-            return Arrays.copyOfRange(log, OF_DATA, log.length);
+            return bufferStart + bufferLen;
         } finally {
             lock.unlock();
         }
@@ -207,17 +264,13 @@ public class LoggerImpl implements Logger {
 
     @Override
     public void rewind() {
-        position = 4;
+        seek(segments.firstLsn());
     }
 
     @Override
     public void close() {
-        try {
-            fc.close();
-            file.close();
-        } catch(IOException e) {
-            Panic.panic(e);
-        }
+        flush();
+        segments.close();
     }
     
 }
@@ -14,7 +14,7 @@ import com.peng.minidb.backend.utils.Parser;
 public class PageX {
     
     private static final short OF_FREE = 0;
-    private static final short OF_DATA = 2;
+    public static final short OF_DATA = 2;
     public static final int MAX_FREE_SPACE = PageCache.PAGE_SIZE - OF_DATA;
 
     public static byte[] initRaw() {
@@ -61,6 +61,17 @@ public class PageX {
         }
     }
 
+    // 把空闲位置退回到 offset，之后的内容清零，空间可以重新插入
+    public static void truncate(Page pg, short offset) {
+        pg.setDirty(true);
+        byte[] raw = pg.getData();
+        short fso = getFSO(raw);
+        if(offset < fso) {
+            Arrays.fill(raw, offset, fso, (byte)0);
+        }
+        setFSO(raw, offset);
+    }
+
     // 将raw插入pg中的offset位置，不更新update
     public static void recoverUpdate(Page pg, byte[] raw, short offset) {
         pg.setDirty(true);
@@ -0,0 +1,48 @@
+package com.peng.minidb.backend.dm.pageCache;
+
+import static com.peng.minidb.backend.dm.pageCache.PageCache.PAGE_SIZE;
+
+/**
+ * 页帧池
+ *
+ * 页面被驱逐、写回完成后，其 byte[] 回到池中，供下一次缺页直接复用，避免每次缺页都分配 8KB 数组
+ * 空闲帧数上限与缓存页数相同（由 -mem 决定），按需分配，不在启动时一次性占满堆；
+ * 池空时临时分配，归还时超出容量的部分丢弃
+ */
+class FramePool {
+
+    private byte[][] frames;
+    private int size;
+
+    FramePool(int capacity) {
+        this.frames = new byte[capacity][];
+    }
+
+    /**
+     * 取出一个页帧，内容是上一个页面留下的，调用者需整页覆盖
+     */
+    byte[] acquire() {
+        synchronized(this) {
+            if(size > 0) {
+                byte[] frame = frames[-- size];
+                frames[size] = null;
+                return frame;
+            }
+        }
+        return new byte[PAGE_SIZE];
+    }
+
+    /**
+     * 归还页帧，调用者之后不得再访问它
+     */
+    void recycle(byte[] frame) {
+        if(frame.length != PAGE_SIZE) {
+            return;
+        }
+        synchronized(this) {
+            if(size < frames.length) {
+                frames[size ++] = frame;
+            }
+        }
+    }
+}
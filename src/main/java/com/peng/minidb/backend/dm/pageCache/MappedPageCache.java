@@ -0,0 +1,108 @@
+package com.peng.minidb.backend.dm.pageCache;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.peng.minidb.backend.common.ReplacementPolicy;
+import com.peng.minidb.backend.utils.Panic;
+
+/**
+ * 内存映射模式的页面缓存
+ *
+ * 数据文件按 CHUNK_SIZE 分段只读映射，读页面时直接从映射区拷贝，不经过系统调用，也不加文件锁
+ * 写回仍由 PageWriter 通过 FileChannel 完成，与映射共享操作系统的页缓存
+ * 文件变长后，读到映射范围之外的页面时再扩展映射
+ * 只映射文件已有的长度，不预先扩展文件，以免页数按文件长度计算时把空白页算进去
+ */
+public class MappedPageCache extends PageCacheImpl {
+
+    private static final int CHUNK_SIZE = PAGE_SIZE * 8192;    // 64MB，页面不会跨段
+
+    private FileChannel fc;
+    private Lock mapLock;
+
+    // 写时复制，读者无需加锁
+    private volatile MappedByteBuffer[] chunks;
+    private volatile long mappedSize;
+
+    MappedPageCache(RandomAccessFile file, FileChannel fileChannel, int maxResource, ReplacementPolicy policy) {
+        super(file, fileChannel, maxResource, policy);
+        this.fc = fileChannel;
+        this.mapLock = new ReentrantLock();
+        this.chunks = new MappedByteBuffer[0];
+        remap(0);
+    }
+
+    @Override
+    void readPage(int pgno, byte[] frame) {
+        long offset = pageOffset(pgno);
+        if(offset + PAGE_SIZE > mappedSize) {
+            remap(offset + PAGE_SIZE);
+            if(offset + PAGE_SIZE > mappedSize) {
+                // 文件中还没有这个页面
+                super.readPage(pgno, frame);
+                return;
+            }
+        }
+        ByteBuffer chunk = chunks[(int)(offset / CHUNK_SIZE)].duplicate();
+        chunk.position((int)(offset % CHUNK_SIZE));
+        chunk.get(frame);
+    }
+
+    /**
+     * 把映射扩展到当前文件长度，只有文件长度达到 required 时才重新映射
+     */
+    private void remap(long required) {
+        mapLock.lock();
+        try {
+            if(required != 0 && required <= mappedSize) {
+                return;
+            }
+            long size = fc.size() / PAGE_SIZE * PAGE_SIZE;
+            if(required > size) {
+                return;
+            }
+            int n = (int)((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            MappedByteBuffer[] old = chunks;
+            MappedByteBuffer[] next = Arrays.copyOf(old, n);
+            // 之前的整段映射可以复用，最后一段不满的需要重新映射
+            int full = (int)(mappedSize / CHUNK_SIZE);
+            for (int i = full; i < n; i ++) {
+                long start = (long)i * CHUNK_SIZE;
+                long len = Math.min(CHUNK_SIZE, size - start);
+                next[i] = fc.map(FileChannel.MapMode.READ_ONLY, start, len);
+            }
+            chunks = next;
+            mappedSize = size;
+        } catch(IOException e) {
+            Panic.panic(e);
+        } finally {
+            mapLock.unlock();
+        }
+    }
+
+    /**
+     * 截断前先收缩映射范围，之后不会再访问被截掉的部分
+     */
+    @Override
+    public void truncateByBgno(int maxPgno) {
+        mapLock.lock();
+        try {
+            long size = pageOffset(maxPgno + 1);
+            if(size < mappedSize) {
+                // 只在打开数据库恢复时调用，此时没有并发读者
+                mappedSize = 0;
+                chunks = new MappedByteBuffer[0];
+            }
+        } finally {
+            mapLock.unlock();
+        }
+        super.truncateByBgno(maxPgno);
+    }
+}
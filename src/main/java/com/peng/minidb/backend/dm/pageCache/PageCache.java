@@ -4,7 +4,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.util.Map;
 
+import com.peng.minidb.backend.common.ReplacementPolicy;
+import com.peng.minidb.backend.dm.logger.Logger;
 import com.peng.minidb.backend.dm.page.Page;
 import com.peng.minidb.backend.utils.Panic;
 import com.peng.minidb.common.Error;
@@ -17,12 +20,28 @@ public interface PageCache {
     Page getPage(int pgno) throws Exception;
     void close();
     void release(Page page);
+    // 提示即将访问该页面，后台异步读入缓存
+    void prefetch(int pgno);
+    // 当前线程的大范围扫描只占用一个小的环形缓冲，不挤出热点页面
+    void beginScan();
+    void endScan();
 
     void truncateByBgno(int maxPgno);
     int getPageNumber();
     void flushPage(Page pg);
+    // 检查点：先在修改暂停时把脏页放入写出队列，再写出并 fsync
+    int queueDirty();
+    void flush();
+    // 写数据页前先刷这个日志
+    void setLogger(Logger logger);
+    // 把运行统计写入 out
+    void status(Map<String, Object> out);
 
     public static PageCacheImpl create(String path, long memory) {
+        return create(path, memory, ReplacementPolicy.clock((int)(memory/PAGE_SIZE)));
+    }
+
+    public static PageCacheImpl create(String path, long memory, ReplacementPolicy policy) {
         File f = new File(path+PageCacheImpl.DB_SUFFIX);
         try {
             if(!f.createNewFile()) {
@@ -43,10 +62,25 @@ public interface PageCache {
         } catch (FileNotFoundException e) {
            Panic.panic(e);
         }
-        return new PageCacheImpl(raf, fc, (int)memory/PAGE_SIZE);
+        return new PageCacheImpl(raf, fc, (int)(memory/PAGE_SIZE), policy);
     }
 
     public static PageCacheImpl open(String path, long memory) {
+        return open(path, memory, ReplacementPolicy.clock((int)(memory/PAGE_SIZE)));
+    }
+
+    public static PageCacheImpl open(String path, long memory, ReplacementPolicy policy) {
+        return open(path, memory, policy, false);
+    }
+
+    /**
+     * mapped 为 true 时以内存映射方式读取数据文件
+     */
+    public static PageCacheImpl open(String path, long memory, boolean mapped) {
+        return open(path, memory, ReplacementPolicy.clock((int)(memory/PAGE_SIZE)), mapped);
+    }
+
+    public static PageCacheImpl open(String path, long memory, ReplacementPolicy policy, boolean mapped) {
         File f = new File(path+PageCacheImpl.DB_SUFFIX);
         if(!f.exists()) {
             Panic.panic(Error.FileNotExistsException);
@@ -63,6 +97,9 @@ public interface PageCache {
         } catch (FileNotFoundException e) {
            Panic.panic(e);
         }
-        return new PageCacheImpl(raf, fc, (int)memory/PAGE_SIZE);
+        if(mapped) {
+            return new MappedPageCache(raf, fc, (int)(memory/PAGE_SIZE), policy);
+        }
+        return new PageCacheImpl(raf, fc, (int)(memory/PAGE_SIZE), policy);
     }
 }
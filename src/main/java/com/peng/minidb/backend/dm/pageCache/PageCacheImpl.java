@@ -4,11 +4,13 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import com.peng.minidb.backend.common.AbstractCache;
+import com.peng.minidb.backend.common.ReplacementPolicy;
+import com.peng.minidb.backend.dm.logger.Logger;
 import com.peng.minidb.backend.dm.page.Page;
 import com.peng.minidb.backend.dm.page.PageImpl;
 import com.peng.minidb.backend.utils.Panic;
@@ -17,16 +19,23 @@ import com.peng.minidb.common.Error;
 public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
     
     private static final int MEM_MIN_LIM = 10;
+    // 扫描环的大小，不超过缓存的四分之一
+    private static final int MIN_RING = 2;
+    private static final int MAX_RING = 32;
     public static final String DB_SUFFIX = ".db";
 
     private RandomAccessFile file;
     private FileChannel fc;
-    private Lock fileLock;
+    private PageWriter writer;
+    private FramePool frames;
+    private ReadAhead readAhead;
+    private ThreadLocal<ScanRing> scanRing;
+    private AtomicInteger activeScans;                  // 正在扫描的线程数
 
     private AtomicInteger pageNumbers;
 
-    PageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource) {
-        super(maxResource);
+    PageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource, ReplacementPolicy policy) {
+        super(maxResource, policy);
         if(maxResource < MEM_MIN_LIM) {
             Panic.panic(Error.MemTooSmallException);
         }
@@ -38,75 +47,171 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         }
         this.file = file;
         this.fc = fileChannel;
-        this.fileLock = new ReentrantLock();
         this.pageNumbers = new AtomicInteger((int)length / PAGE_SIZE);
+        this.frames = new FramePool(maxResource);
+        this.writer = new PageWriter(fileChannel, maxResource, frames);
+        this.readAhead = new ReadAhead(this, maxResource);
+        int ringSize = Math.max(MIN_RING, Math.min(MAX_RING, maxResource / 4));
+        this.scanRing = ThreadLocal.withInitial(() -> new ScanRing(ringSize));
+        this.activeScans = new AtomicInteger(0);
     }
 
+    public void setLogger(Logger logger) {
+        writer.setLogger(logger);
+    }
+
+    /**
+     * 新页面交给后台线程写出，写出前的读取由待写队列提供
+     * initData 写出后会回收进页帧池，调用者之后不得再使用
+     */
     public int newPage(byte[] initData) {
-        int pgno = pageNumbers.incrementAndGet();
-        Page pg = new PageImpl(pgno, initData, null);
-        flush(pg);
-        return pgno;
+        return writer.enqueueNew(pageNumbers, initData);
     }
 
     public Page getPage(int pgno) throws Exception {
         return get((long)pgno);
     }
 
+    public void prefetch(int pgno) {
+        if(!isCached(pgno)) {
+            // 扫描线程提示的页面是为扫描读入的，同样登记到扫描环
+            ScanRing ring = activeRing();
+            if(ring != null) {
+                ring.request(pgno);
+            }
+            readAhead.submit(pgno);
+        }
+    }
+
+    /**
+     * 当前线程开始一次大范围扫描，可以嵌套
+     */
+    public void beginScan() {
+        scanRing.get().begin();
+        activeScans.incrementAndGet();
+    }
+
+    public void endScan() {
+        activeScans.decrementAndGet();
+        if(scanRing.get().end()) {
+            scanRing.remove();
+        }
+    }
+
+    // 当前线程正在扫描时返回它的扫描环，没有线程在扫描时不访问 ThreadLocal
+    private ScanRing activeRing() {
+        if(activeScans.get() == 0) {
+            return null;
+        }
+        ScanRing ring = scanRing.get();
+        return ring.active() ? ring : null;
+    }
+
+    boolean isCached(int pgno) {
+        return isCached((long)pgno);
+    }
+
     /**
      * 根据pageNumber从数据库文件中读取页数据，并包裹成Page
+     * 还没写出的页面以待写队列中的内容为准，页帧从池中复用
      */
     @Override
     protected Page getForCache(long key) throws Exception {
         int pgno = (int)key;
+        readAhead.onMiss(pgno);
+        ScanRing ring = activeRing();
+        if(ring != null) {
+            ring.request(pgno);
+        }
+        byte[] frame = frames.acquire();
+        if(!writer.copyPending(pgno, frame)) {
+            readPage(pgno, frame);
+        }
+        return new PageImpl(pgno, frame, this);
+    }
+
+    /**
+     * 从数据库文件中读取页面内容，整页覆盖 frame
+     */
+    void readPage(int pgno, byte[] frame) {
         long offset = PageCacheImpl.pageOffset(pgno);
 
-        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
-        fileLock.lock();
+        // 定位读不改变通道的位置，不同页面的读取可以同时进行
+        ByteBuffer buf = ByteBuffer.wrap(frame);
         try {
-            fc.position(offset);
-            fc.read(buf);
+            while(buf.hasRemaining()) {
+                if(fc.read(buf, offset + buf.position()) < 0) {
+                    break;
+                }
+            }
         } catch(IOException e) {
             Panic.panic(e);
         }
-        fileLock.unlock();
-        return new PageImpl(pgno, buf.array(), this);
+        // 超出文件末尾的部分清零，不能留下页帧上一个页面的内容
+        Arrays.fill(frame, buf.position(), frame.length, (byte)0);
     }
 
+    /**
+     * 页面被驱逐或缓存关闭时，脏页交给后台线程写回，写回后页帧由写线程回收
+     * 此时页面已不在缓存中，不会再被修改，可以直接交出数据
+     */
     @Override
     protected void releaseForCache(Page pg) {
         if(pg.isDirty()) {
-            flush(pg);
+            writer.enqueue(pg.getPageNumber(), pg.getData());
             pg.setDirty(false);
+        } else {
+            frames.recycle(pg.getData());
         }
     }
 
     public void release(Page page) {
-        release((long)page.getPageNumber());
+        int pgno = page.getPageNumber();
+        release((long)pgno);
+        ScanRing ring = activeRing();
+        if(ring != null) {
+            // 扫描环满时驱逐最早用完的页面；它又被其他线程引用时驱逐失败，留给置换策略
+            int out = ring.released(pgno);
+            if(out != 0) {
+                evict(out);
+            }
+        }
     }
 
+    /**
+     * 同步写出并 fsync 指定页面
+     */
     public void flushPage(Page pg) {
-        flush(pg);
+        writer.writeNow(pg.getPageNumber(), pg.getData());
     }
 
-    private void flush(Page pg) {
-        int pgno = pg.getPageNumber();
-        long offset = pageOffset(pgno);
+    /**
+     * 把缓存中的脏页拷贝进写出队列并标记为干净，返回页数
+     * 调用者需保证期间没有页面被修改；这里不会同步刷盘，页面由之后的 flush 写出
+     */
+    public int queueDirty() {
+        int[] n = new int[1];
+        forEachCached(pg -> {
+            if(pg.isDirty()) {
+                byte[] copy = frames.acquire();
+                System.arraycopy(pg.getData(), 0, copy, 0, PAGE_SIZE);
+                pg.setDirty(false);
+                writer.enqueueDeferred(pg.getPageNumber(), copy);
+                n[0] ++;
+            }
+        });
+        return n[0];
+    }
 
-        fileLock.lock();
-        try {
-            ByteBuffer buf = ByteBuffer.wrap(pg.getData());
-            fc.position(offset);
-            fc.write(buf);
-            fc.force(false);
-        } catch(IOException e) {
-            Panic.panic(e);
-        } finally {
-            fileLock.unlock();
-        }
+    /**
+     * 写出队列中的所有页面并 fsync
+     */
+    public void flush() {
+        writer.flush();
     }
 
     public void truncateByBgno(int maxPgno) {
+        writer.discardAfter(maxPgno);
         long size = pageOffset(maxPgno + 1);
         try {
             file.setLength(size);
@@ -118,7 +223,9 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
 
     @Override
     public void close() {
+        readAhead.close();
         super.close();
+        writer.close();
         try {
             fc.close();
             file.close();
@@ -127,12 +234,22 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         }
     }
 
+    public void status(Map<String, Object> out) {
+        out.put("page_cache.capacity", getCapacity());
+        out.put("page_cache.resident", getResidentCount());
+        out.put("page_cache.pinned", getPinnedCount());
+        out.put("page_cache.dirty", countCached(Page::isDirty));
+        getStats().report("page_cache", out);
+        out.put("page_cache.prefetched", readAhead.prefetched());
+        writer.report(out);
+    }
+
     public int getPageNumber() {
         return pageNumbers.intValue();
     }
 
-    private static long pageOffset(int pgno) {
-        return (pgno-1) * PAGE_SIZE;
+    static long pageOffset(int pgno) {
+        return (long)(pgno-1) * PAGE_SIZE;
     }
     
 }
@@ -0,0 +1,332 @@
+package com.peng.minidb.backend.dm.pageCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.peng.minidb.backend.common.CacheStats;
+import com.peng.minidb.backend.common.LatencyHistogram;
+import com.peng.minidb.backend.common.LongObjectMap;
+import com.peng.minidb.backend.dm.logger.Logger;
+import com.peng.minidb.backend.utils.Panic;
+
+/**
+ * 后台刷页线程
+ *
+ * 被驱逐的脏页和新建页先放入待写队列，同一页多次写入只保留最新内容
+ * 后台线程攒够一批或超时后，按页号排序，连续页号用一次聚集写写出，每批只 fsync 一次
+ * 写数据页之前先刷日志，保证 WAL 先于数据落盘
+ * 页面在写出前被再次读取时，直接从待写队列中取最新内容
+ */
+class PageWriter implements Runnable {
+
+    private static final int BATCH_PAGES = 64;          // 攒够这么多页立即刷
+    private static final long FLUSH_INTERVAL_MS = 100;  // 最长等待时间
+
+    private FileChannel fc;
+    private FramePool frames;                           // 写出后的页面内容回收到这里
+    private Logger logger;
+
+    private LongObjectMap<byte[]> pending;
+    private Lock pendingLock;
+    private Condition hasWork;
+    private int maxPending;                             // 超过时由调用者同步刷盘
+
+    // 同一时刻只有一批在写，保证同一页的新内容不被旧内容覆盖
+    // 聚集写依赖通道位置，也由它保护；读取都是定位读，不受影响
+    private Lock flushLock;
+
+    // 统计，只在持有 flushLock 时修改
+    private volatile long batches;
+    private volatile long pagesWritten;
+    private LatencyHistogram flushLatency;              // 一批从刷日志到 fsync 完成的耗时
+
+    private volatile boolean closed;
+    private Thread thread;
+
+    PageWriter(FileChannel fc, int maxPending, FramePool frames) {
+        this.fc = fc;
+        this.frames = frames;
+        this.maxPending = Math.max(maxPending, BATCH_PAGES);
+        this.pending = new LongObjectMap<>();
+        this.pendingLock = new ReentrantLock();
+        this.hasWork = pendingLock.newCondition();
+        this.flushLock = new ReentrantLock();
+        this.flushLatency = new LatencyHistogram();
+        this.thread = new Thread(this, "page-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * 把页面内容加入待写队列，调用者之后不得再修改 data
+     */
+    void enqueue(int pgno, byte[] data) {
+        int size;
+        pendingLock.lock();
+        try {
+            size = put(pgno, data);
+        } finally {
+            pendingLock.unlock();
+        }
+        if(size >= maxPending) {
+            flush();
+        }
+    }
+
+    /**
+     * 同 enqueue，但队列再长也不在当前线程刷盘，由调用者稍后调用 flush 写出
+     * 供检查点在持有修改锁时使用，避免在排他锁内刷日志、写页和 fsync
+     */
+    void enqueueDeferred(int pgno, byte[] data) {
+        pendingLock.lock();
+        try {
+            put(pgno, data);
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    /**
+     * 为新页面分配页号并加入待写队列，返回页号
+     * 两步在同一临界区内完成，其他线程（如预读线程）看到新页号时，copyPending 一定能取到初始内容，
+     * 不会从文件末尾之后读到全 0 的页面并留在缓存中
+     */
+    int enqueueNew(AtomicInteger pageNumbers, byte[] data) {
+        int pgno, size;
+        pendingLock.lock();
+        try {
+            pgno = pageNumbers.incrementAndGet();
+            size = put(pgno, data);
+        } finally {
+            pendingLock.unlock();
+        }
+        if(size >= maxPending) {
+            flush();
+        }
+        return pgno;
+    }
+
+    // 调用时需持有 pendingLock，返回队列长度
+    private int put(int pgno, byte[] data) {
+        pending.put(pgno, data);
+        int size = pending.size();
+        if(size >= BATCH_PAGES) {
+            hasWork.signal();
+        }
+        return size;
+    }
+
+    /**
+     * 页面尚未写出时，把待写内容拷贝到 frame 并返回 true
+     */
+    boolean copyPending(int pgno, byte[] frame) {
+        pendingLock.lock();
+        try {
+            byte[] data = pending.get(pgno);
+            if(data == null) {
+                return false;
+            }
+            System.arraycopy(data, 0, frame, 0, data.length);
+            return true;
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    /**
+     * 立即写出并 fsync 一个页面，队列中该页的旧内容作废
+     */
+    void writeNow(int pgno, byte[] data) {
+        flushLock.lock();
+        try {
+            byte[] old;
+            pendingLock.lock();
+            try {
+                old = pending.remove(pgno);
+            } finally {
+                pendingLock.unlock();
+            }
+            // 持有 flushLock，旧内容不会正在被写出
+            if(old != null) {
+                frames.recycle(old);
+            }
+            flushLog();
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            long offset = PageCacheImpl.pageOffset(pgno);
+            while(buf.hasRemaining()) {
+                fc.write(buf, offset + buf.position());
+            }
+            fc.force(false);
+        } catch(IOException e) {
+            Panic.panic(e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 丢弃页号大于 maxPgno 的待写页面
+     */
+    void discardAfter(int maxPgno) {
+        flushLock.lock();
+        try {
+            pendingLock.lock();
+            try {
+                for (long pgno : pending.keys()) {
+                    if(pgno > maxPgno) {
+                        frames.recycle(pending.remove(pgno));
+                    }
+                }
+            } finally {
+                pendingLock.unlock();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 写出当前队列中的所有页面，并 fsync 一次
+     */
+    void flush() {
+        flushLock.lock();
+        try {
+            long[] pgnos;
+            byte[][] datas;
+            pendingLock.lock();
+            try {
+                if(pending.isEmpty()) {
+                    return;
+                }
+                pgnos = pending.keys();
+                Arrays.sort(pgnos);
+                datas = new byte[pgnos.length][];
+                for (int i = 0; i < pgnos.length; i ++) {
+                    datas[i] = pending.get(pgnos[i]);
+                }
+            } finally {
+                pendingLock.unlock();
+            }
+
+            long begin = System.nanoTime();
+            flushLog();
+            int start = 0;
+            while(start < pgnos.length) {
+                // 找出页号连续的一段，一次聚集写写出
+                int end = start + 1;
+                while(end < pgnos.length && pgnos[end] == pgnos[end - 1] + 1) {
+                    end ++;
+                }
+                ByteBuffer[] bufs = new ByteBuffer[end - start];
+                for (int i = start; i < end; i ++) {
+                    bufs[i - start] = ByteBuffer.wrap(datas[i]);
+                }
+                fc.position(PageCacheImpl.pageOffset((int)pgnos[start]));
+                writeFully(bufs);
+                start = end;
+            }
+            fc.force(false);
+            flushLatency.record(System.nanoTime() - begin);
+            batches ++;
+            pagesWritten += pgnos.length;
+
+            // 只移除写出期间没有被更新过的页面
+            // 本批写出的内容要么已移除，要么已被新内容替换，都不会再被引用，可以回收
+            pendingLock.lock();
+            try {
+                for (int i = 0; i < pgnos.length; i ++) {
+                    if(pending.get(pgnos[i]) == datas[i]) {
+                        pending.remove(pgnos[i]);
+                    }
+                }
+            } finally {
+                pendingLock.unlock();
+            }
+            for (byte[] data : datas) {
+                frames.recycle(data);
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    void report(Map<String, Object> out) {
+        int n;
+        pendingLock.lock();
+        try {
+            n = pending.size();
+        } finally {
+            pendingLock.unlock();
+        }
+        out.put("page_writer.pending", n);
+        out.put("page_writer.batches", batches);
+        out.put("page_writer.pages_written", pagesWritten);
+        CacheStats.reportLatency("page_writer.flush", flushLatency, out);
+    }
+
+    private void flushLog() {
+        if(logger != null) {
+            logger.flush();
+        }
+    }
+
+    private void writeFully(ByteBuffer[] bufs) throws IOException {
+        ByteBuffer last = bufs[bufs.length - 1];
+        while(last.hasRemaining()) {
+            fc.write(bufs);
+        }
+    }
+
+    @Override
+    public void run() {
+        while(!closed) {
+            pendingLock.lock();
+            try {
+                if(!closed && pending.size() < BATCH_PAGES) {
+                    hasWork.await(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                }
+            } catch(InterruptedException e) {
+                Panic.panic(e);
+            } finally {
+                pendingLock.unlock();
+            }
+            if(!closed) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * 停止后台线程，并写出剩余页面
+     */
+    void close() {
+        // 不能用 interrupt 唤醒，中断会导致正在写的 FileChannel 被关闭
+        pendingLock.lock();
+        try {
+            closed = true;
+            hasWork.signal();
+        } finally {
+            pendingLock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
+        flush();
+    }
+}
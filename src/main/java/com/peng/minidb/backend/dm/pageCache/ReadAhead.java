@@ -0,0 +1,171 @@
+package com.peng.minidb.backend.dm.pageCache;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.peng.minidb.backend.common.LongIntMap;
+import com.peng.minidb.backend.dm.page.Page;
+import com.peng.minidb.backend.utils.Panic;
+
+/**
+ * 页面预读
+ *
+ * 连续几次缺页的页号依次递增时，认为是顺序扫描，把后面若干页交给后台线程提前读入缓存；
+ * 上层也可以直接提示即将访问的页面
+ * 预读只是尽力而为：队列满时丢弃请求，已在缓存中的页面跳过
+ */
+class ReadAhead implements Runnable {
+
+    private static final int MAX_WINDOW = 16;           // 顺序扫描时最多预读的页数
+    private static final int SEQ_THRESHOLD = 2;         // 连续递增缺页达到该次数才开始预读
+    private static final int QUEUE_SIZE = 256;
+
+    private PageCacheImpl pc;
+    private int window;
+
+    // 顺序检测状态，由 synchronized(this) 保护
+    private int lastMiss;
+    private int streak;
+    private int nextPrefetch;                           // 下一个要预读的页号，避免重复提交
+
+    private int[] queue;
+    private int head, size;
+    private LongIntMap queued;                          // 队列中还有效的页号，被其他线程先读入后作废
+    private Lock lock;
+    private Condition notEmpty;
+
+    private volatile long prefetched;                   // 预读线程实际读入的页数，只由预读线程修改
+
+    private volatile boolean closed;
+    private Thread thread;
+
+    ReadAhead(PageCacheImpl pc, int maxResource) {
+        this.pc = pc;
+        // 预读的页面要在被访问前留在缓存中，窗口不能占用太多缓存；也要小于扫描环
+        this.window = Math.max(1, Math.min(MAX_WINDOW, maxResource / 8));
+        this.queue = new int[QUEUE_SIZE];
+        this.queued = new LongIntMap(QUEUE_SIZE);
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.thread = new Thread(this, "page-prefetch");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 缺页时调用，作废该页的预读请求，并检测顺序访问
+     */
+    void onMiss(int pgno) {
+        if(Thread.currentThread() == thread) {
+            // 预读线程自己的缺页不参与检测
+            return;
+        }
+        // 预读落后于访问时，页面已由访问线程读入，之后可能已被驱逐，不应再被预读线程读回来
+        lock.lock();
+        try {
+            queued.remove(pgno);
+        } finally {
+            lock.unlock();
+        }
+        int from, to;
+        synchronized(this) {
+            // 预读命中的页面不会缺页，下一次缺页落在上一个窗口之后，也算顺序访问
+            boolean sequential = pgno == lastMiss + 1 || (pgno > lastMiss && pgno <= nextPrefetch);
+            if(sequential) {
+                streak ++;
+            } else {
+                streak = 0;
+                nextPrefetch = 0;
+            }
+            lastMiss = pgno;
+            if(streak < SEQ_THRESHOLD) {
+                return;
+            }
+            from = Math.max(nextPrefetch, pgno + 1);
+            to = pgno + window;
+            if(from > to) {
+                return;
+            }
+            nextPrefetch = to + 1;
+        }
+        for (int p = from; p <= to; p ++) {
+            // 经过 PageCacheImpl.prefetch，扫描中的线程触发的预读也记入扫描环
+            pc.prefetch(p);
+        }
+    }
+
+    /**
+     * 提交一个预读请求
+     */
+    void submit(int pgno) {
+        lock.lock();
+        try {
+            if(size == queue.length || queued.containsKey(pgno)) {
+                return;
+            }
+            queued.put(pgno, 1);
+            queue[(head + size) % queue.length] = pgno;
+            size ++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        while(true) {
+            int pgno;
+            lock.lock();
+            try {
+                while(size == 0 && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if(closed) {
+                    return;
+                }
+                pgno = queue[head];
+                head = (head + 1) % queue.length;
+                size --;
+                if(!queued.remove(pgno)) {
+                    continue;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if(pgno < 1 || pgno > pc.getPageNumber() || pc.isCached(pgno)) {
+                continue;
+            }
+            try {
+                Page pg = pc.getPage(pgno);
+                pg.release();
+                prefetched ++;
+            } catch (Exception e) {
+                Panic.panic(e);
+            }
+        }
+    }
+
+    long prefetched() {
+        return prefetched;
+    }
+
+    /**
+     * 停止预读线程，等待正在进行的预读完成
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.peng.minidb.backend.dm.pageCache;
+
+import com.peng.minidb.backend.common.LongIntMap;
+
+/**
+ * 大范围扫描使用的环形缓冲
+ *
+ * 扫描期间为本线程读入（缺页或预读）的页面先登记下来，本线程用完释放时记入环中，
+ * 环满时驱逐最早用完的页面，扫描因此只占用有限几个缓存位置，不会把索引页和热点数据页挤出缓存
+ * 扫描开始前已经在缓存中的页面不受影响
+ * 在页面用完后才驱逐，避免驱逐还在加载或还没被用到的预读页面
+ * 每个扫描线程一个，不需要同步
+ */
+class ScanRing {
+
+    private LongIntMap requested;                       // 为本次扫描读入、还没用完的页面
+    private int[] pgnos;
+    private int head, size;
+    private int depth;                                  // beginScan 的嵌套层数
+
+    ScanRing(int capacity) {
+        this.requested = new LongIntMap();
+        this.pgnos = new int[capacity];
+    }
+
+    void begin() {
+        depth ++;
+    }
+
+    /**
+     * 结束一层扫描，最外层结束时返回 true
+     * 环中剩下的页面留在缓存中，按普通页面由置换策略处理
+     */
+    boolean end() {
+        return -- depth == 0;
+    }
+
+    boolean active() {
+        return depth > 0;
+    }
+
+    /**
+     * 登记一个为本次扫描读入的页面
+     */
+    void request(int pgno) {
+        requested.put(pgno, 1);
+    }
+
+    /**
+     * 本线程释放了一个页面，如果是为扫描读入的就记入环
+     * 环满时返回被挤出的页号，否则返回 0
+     */
+    int released(int pgno) {
+        if(!requested.remove(pgno)) {
+            return 0;
+        }
+        if(size < pgnos.length) {
+            pgnos[(head + size ++) % pgnos.length] = pgno;
+            return 0;
+        }
+        int out = pgnos[head];
+        pgnos[head] = pgno;
+        head = (head + 1) % pgnos.length;
+        return out;
+    }
+}
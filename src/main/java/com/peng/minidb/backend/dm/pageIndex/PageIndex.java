@@ -52,4 +52,21 @@ public class PageIndex {
         }
     }
 
+    // 取走 pgno 的记录，页面正被插入数据、已被 select 取走时返回 null
+    public PageInfo remove(int pgno) {
+        lock.lock();
+        try {
+            for (List<PageInfo> list : lists) {
+                for (int i = 0; i < list.size(); i ++) {
+                    if(list.get(i).pgno == pgno) {
+                        return list.remove(i);
+                    }
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
 }
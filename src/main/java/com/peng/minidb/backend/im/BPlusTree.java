@@ -10,6 +10,7 @@ import com.peng.minidb.backend.common.SubArray;
 import com.peng.minidb.backend.dm.DataManager;
 import com.peng.minidb.backend.dm.dataItem.DataItem;
 import com.peng.minidb.backend.im.Node.InsertAndSplitRes;
+import com.peng.minidb.backend.im.Node.LeafRemoveRes;
 import com.peng.minidb.backend.im.Node.LeafSearchRangeRes;
 import com.peng.minidb.backend.im.Node.SearchNextRes;
 import com.peng.minidb.backend.tm.TransactionManagerImpl;
@@ -70,11 +71,21 @@ public class BPlusTree {
         if(isLeaf) {
             return nodeUid;
         } else {
-            long next = searchNext(nodeUid, key);
+            long next = searchFirst(nodeUid, key);
             return searchLeaf(next, key);
         }
     }
 
+    private long searchFirst(long nodeUid, long key) throws Exception {
+        while(true) {
+            Node node = Node.loadNode(this, nodeUid);
+            SearchNextRes res = node.searchFirst(key);
+            node.release();
+            if(res.uid != 0) return res.uid;
+            nodeUid = res.siblingUid;
+        }
+    }
+
     private long searchNext(long nodeUid, long key) throws Exception {
         while(true) {
             Node node = Node.loadNode(this, nodeUid);
@@ -116,6 +127,27 @@ public class BPlusTree {
         }
     }
 
+    /**
+     * 删除 (key, uid)，返回是否找到
+     * 与 searchRange 一样从 key 所在的叶子沿兄弟节点查找；只删除叶子中的项，不合并节点，内部节点的键仍是有效的分界
+     */
+    public boolean delete(long key, long uid) throws Exception {
+        long rootUid = rootUid();
+        long leafUid = searchLeaf(rootUid, key);
+        while(true) {
+            Node leaf = Node.loadNode(this, leafUid);
+            LeafRemoveRes res = leaf.leafRemove(key, uid);
+            leaf.release();
+            if(res.removed) {
+                return true;
+            }
+            if(res.siblingUid == 0) {
+                return false;
+            }
+            leafUid = res.siblingUid;
+        }
+    }
+
     class InsertRes {
         long newNode, newKey;
     }
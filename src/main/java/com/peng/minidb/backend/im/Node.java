@@ -89,6 +89,12 @@ public class Node {
         }
     }
 
+    static void unshiftRawKth(SubArray raw, int kth) {
+        int begin = raw.start+NODE_HEADER_SIZE+kth*(8*2);
+        int end = raw.start+NODE_SIZE;
+        System.arraycopy(raw.raw, begin+(8*2), raw.raw, begin, end-begin-(8*2));
+    }
+
     static byte[] newRootRaw(long left, long right, long key)  {
         SubArray raw = new SubArray(new byte[NODE_SIZE], 0, NODE_SIZE);
 
@@ -143,13 +149,22 @@ public class Node {
     }
 
     public SearchNextRes searchNext(long key) {
+        return searchNext(key, false);
+    }
+
+    // 查找时键等于分界也进入左边的子节点：分裂按位置进行，与分界相同的键可能留在左边
+    public SearchNextRes searchFirst(long key) {
+        return searchNext(key, true);
+    }
+
+    private SearchNextRes searchNext(long key, boolean first) {
         dataItem.rLock();
         try {
             SearchNextRes res = new SearchNextRes();
             int noKeys = getRawNoKeys(raw);
             for(int i = 0; i < noKeys; i ++) {
                 long ik = getRawKthKey(raw, i);
-                if(key < ik) {
+                if(key < ik || (first && key == ik)) {
                     res.uid = getRawKthSon(raw, i);
                     res.siblingUid = 0;
                     return res;
@@ -271,6 +286,44 @@ public class Node {
         return true;
     }
 
+    class LeafRemoveRes {
+        boolean removed;
+        long siblingUid;
+    }
+
+    /**
+     * 在叶子中删除 (key, uid)，不合并节点
+     * 找到并删除，或遇到更大的键时 siblingUid 为 0；读完整个节点仍未找到时返回兄弟节点继续查找
+     */
+    public LeafRemoveRes leafRemove(long key, long uid) {
+        LeafRemoveRes res = new LeafRemoveRes();
+
+        dataItem.before();
+        try {
+            int noKeys = getRawNoKeys(raw);
+            for(int kth = 0; kth < noKeys; kth ++) {
+                long ik = getRawKthKey(raw, kth);
+                if(ik > key) {
+                    return res;
+                }
+                if(ik == key && getRawKthSon(raw, kth) == uid) {
+                    unshiftRawKth(raw, kth);
+                    setRawNoKeys(raw, noKeys-1);
+                    res.removed = true;
+                    return res;
+                }
+            }
+            res.siblingUid = getRawSibling(raw);
+            return res;
+        } finally {
+            if(res.removed) {
+                dataItem.after(TransactionManagerImpl.SUPER_XID);
+            } else {
+                dataItem.unBefore();
+            }
+        }
+    }
+
     private boolean needSplit() {
         return BALANCE_NUMBER*2 == getRawNoKeys(raw);
     }
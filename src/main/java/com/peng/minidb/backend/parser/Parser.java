@@ -124,6 +124,8 @@ public class Parser {
         String name = showStatement.getName();
         if (name.equalsIgnoreCase("table")) {
             show.isTable = true;
+        } else if (name.equalsIgnoreCase("status")) {
+            show.isStatus = true;
         }
         show.tableName = name;
         return show;
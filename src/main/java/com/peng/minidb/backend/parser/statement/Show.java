@@ -3,4 +3,5 @@ package com.peng.minidb.backend.parser.statement;
 public class Show {
     public String tableName;
     public boolean isTable;
+    public boolean isStatus;
 }
@@ -0,0 +1,41 @@
+package com.peng.minidb.backend.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import com.peng.minidb.backend.tbm.TableManager;
+import com.peng.minidb.backend.utils.Panic;
+
+public class Status implements StatusMXBean {
+
+    public static final String OBJECT_NAME = "com.peng.minidb:type=Status";
+
+    private TableManager tbm;
+
+    public Status(TableManager tbm) {
+        this.tbm = tbm;
+    }
+
+    @Override
+    public Map<String, String> getStatus() {
+        Map<String, String> res = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> e : tbm.status().entrySet()) {
+            res.put(e.getKey(), String.valueOf(e.getValue()));
+        }
+        return res;
+    }
+
+    /**
+     * 注册到平台 MBeanServer
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.peng.minidb.backend.server;
+
+import java.util.Map;
+
+/**
+ * 通过 JMX 暴露的运行统计，内容与 SHOW STATUS 相同
+ */
+public interface StatusMXBean {
+    Map<String, String> getStatus();
+}
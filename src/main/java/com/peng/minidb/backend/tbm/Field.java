@@ -173,6 +173,16 @@ public class Field {
         bt.insert(uKey, uid);
     }
 
+    // 索引中是否有 (key, uid) 这一项
+    public boolean contains(Object key, long uid) throws Exception {
+        return bt.search(value2Uid(key)).contains(uid);
+    }
+
+    // 删除索引项 (key, uid)，返回是否找到
+    public boolean remove(Object key, long uid) throws Exception {
+        return bt.delete(value2Uid(key), uid);
+    }
+
     public List<Long> search(long left, long right) throws Exception {
         return bt.searchRange(left, right);
     }
@@ -0,0 +1,51 @@
+package com.peng.minidb.backend.tbm;
+
+import com.peng.minidb.backend.utils.Panic;
+import com.peng.minidb.backend.vm.VersionManager;
+
+/**
+ * 后台冻结线程
+ *
+ * XID 文件为每个事务保存 1 字节状态，启动时全部读入内存
+ * 保留的状态超过 FREEZE_WINDOW 个时冻结一次：把旧事务留下的 XMIN / XMAX 改写为不需要查询状态的值，
+ * 再截断 XID 文件，文件和内存中只保留最近一段事务的状态
+ * 长事务使界限无法前进时，至少再经过 FREEZE_WINDOW 个事务才重试
+ */
+class Freezer implements Runnable {
+
+    private static final long FREEZE_WINDOW = 1L << 22;
+    private static final long POLL_MS = 10 * 1000;
+
+    private TableManager tbm;
+    private VersionManager vm;
+    private long threshold;
+
+    Freezer(TableManager tbm, VersionManager vm) {
+        this.tbm = tbm;
+        this.vm = vm;
+        this.threshold = FREEZE_WINDOW;
+        Thread thread = new Thread(this, "freezer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while(true) {
+            try {
+                Thread.sleep(POLL_MS);
+            } catch(InterruptedException e) {
+                return;
+            }
+            if(vm.statusCount() < threshold) {
+                continue;
+            }
+            try {
+                tbm.freeze();
+            } catch(Exception e) {
+                Panic.panic(e);
+            }
+            threshold = vm.statusCount() + FREEZE_WINDOW;
+        }
+    }
+}
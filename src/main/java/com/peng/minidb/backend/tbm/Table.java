@@ -27,6 +27,10 @@ public class Table {
     long nextUid;
     List<Field> fields = new ArrayList<>();
     public static final String GEN_CLUST_INDEX = "GEN_CLUST_INDEX";
+    // 扫描时预读提示的粒度，按 uid 个数计
+    private static final int PREFETCH_WINDOW = 64;
+    // 读取的行数达到该值时按扫描处理
+    private static final int SCAN_THRESHOLD = 256;
     // 定义一个字段缓存，用于全表查询
     private Map<String, Field> fieldCache = new HashMap<>();
 
@@ -176,7 +180,7 @@ public class Table {
 
             for (Field field : fields) {
                 if (field.isIndexed()) {
-                    field.insert(entry.get(field.fieldName), uuid);
+                    insertIndex(xid, field, entry.get(field.fieldName), uuid);
                 }
             }
         }
@@ -199,24 +203,37 @@ public class Table {
             fieldsToOutput = read.fields;
         }
 
-        for (Long uid : uids) {
-            byte[] raw = ((TableManagerImpl) tbm).vm.read(xid, uid);
-            if (raw == null) continue;
-
-            Map<String, Object> entry = parseEntry(raw);
-            // 保留用户选择字段
-            if (read.fields.length == 1 && read.fields[0].equals("*")) {
-                entries.add(entry);
-            } else {
-                Map<String, Object> filterEntry = new HashMap<>();
-                for (String fieldName : read.fields) {
-                    if (fieldName.equals(GEN_CLUST_INDEX))
-                        continue;
-                    if (entry.containsKey(fieldName)) {
-                        filterEntry.put(fieldName, entry.get(fieldName));
+        // 结果集很大时按扫描处理，只占用少量页面缓存
+        boolean scan = uids.size() >= SCAN_THRESHOLD;
+        if (scan) {
+            ((TableManagerImpl) tbm).dm.beginScan();
+        }
+        try {
+            for (int i = 0; i < uids.size(); i++) {
+                prefetchAhead(uids, i);
+                Long uid = uids.get(i);
+                byte[] raw = ((TableManagerImpl) tbm).vm.read(xid, uid);
+                if (raw == null) continue;
+
+                Map<String, Object> entry = parseEntry(raw);
+                // 保留用户选择字段
+                if (read.fields.length == 1 && read.fields[0].equals("*")) {
+                    entries.add(entry);
+                } else {
+                    Map<String, Object> filterEntry = new HashMap<>();
+                    for (String fieldName : read.fields) {
+                        if (fieldName.equals(GEN_CLUST_INDEX))
+                            continue;
+                        if (entry.containsKey(fieldName)) {
+                            filterEntry.put(fieldName, entry.get(fieldName));
+                        }
                     }
+                    entries.add(filterEntry);
                 }
-                entries.add(filterEntry);
+            }
+        } finally {
+            if (scan) {
+                ((TableManagerImpl) tbm).dm.endScan();
             }
         }
 
@@ -252,7 +269,7 @@ public class Table {
 
         for (Field field : fields) {
             if (field.isIndexed()) {
-                field.insert(entry.get(field.fieldName), uid);
+                insertIndex(xid, field, entry.get(field.fieldName), uid);
             }
         }
         // 更新唯一值集合
@@ -278,6 +295,51 @@ public class Table {
         ((TableManagerImpl) tbm).vm.physicalDelete(xid, this.uid); // 物理删除表元数据
     }
 
+    /**
+     * 回收本表中对所有事务都不可见的版本，返回回收的个数
+     * 先确认版本在每个索引中都有项，再全部删除并物理删除；有索引项找不到时保留版本，
+     * 避免只删掉一部分索引项后，这个版本再也扫描不到，而其他索引项仍指向它
+     * 索引项只有清理会删除，清理之间互斥，确认之后的删除一定能找到
+     */
+    int vacuum(long xid, long horizon) throws Exception {
+        List<Long> allUid = getAllUid();
+        int count = 0;
+        ((TableManagerImpl) tbm).dm.beginScan();
+        try {
+            for (int i = 0; i < allUid.size(); i++) {
+                prefetchAhead(allUid, i);
+                long uid = allUid.get(i);
+                byte[] raw = ((TableManagerImpl) tbm).vm.readDead(uid, horizon);
+                if (raw == null) continue;
+
+                Map<String, Object> entry = parseEntry(raw);
+                if (!indexed(entry, uid)) {
+                    continue;
+                }
+                for (Field field : fields) {
+                    if (field.isIndexed()) {
+                        field.remove(entry.get(field.fieldName), uid);
+                    }
+                }
+                ((TableManagerImpl) tbm).vm.physicalDelete(xid, uid);
+                count++;
+            }
+        } finally {
+            ((TableManagerImpl) tbm).dm.endScan();
+        }
+        return count;
+    }
+
+    // 版本在每个索引中都有对应的项
+    private boolean indexed(Map<String, Object> entry, long uid) throws Exception {
+        for (Field field : fields) {
+            if (field.isIndexed() && !field.contains(entry.get(field.fieldName), uid)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void updateUniqueValues(Map<String, Object> entry) {
         for (Field field : fields) {
             if (field.isUnique && entry.containsKey(field.fieldName)) {
@@ -370,7 +432,7 @@ public class Table {
 
     private List<Long> parseWhere(Where where, long xid) throws Exception {
         if (where == null)
-            return getAllUid();
+            return getAllUid(xid);
 
         Field indexedField1 = findIndexedField(where.singleExp1.field);
         Field indexedField2 = where.singleExp2 != null ? findIndexedField(where.singleExp2.field) : null;
@@ -385,14 +447,14 @@ public class Table {
         // 如果第一个条件字段有索引，使用第一个条件字段进行初步查询
         if (indexedField1 != null) {
             CalWhereRes res = calWhere(indexedField1, where.singleExp1);
-            uids = indexedField1.search(res.l0, res.r0);
+            uids = search(xid, indexedField1, res.l0, res.r0);
 
             // 如果存在第二个条件字段
             if (where.singleExp2 != null) {
                 // 如果第二个条件字段也有索引，进行第二次索引查询
                 if (indexedField2 != null) {
                     CalWhereRes res2 = calWhere(indexedField2, where.singleExp2);
-                    List<Long> additionalUids = indexedField2.search(res2.l0, res2.r0);
+                    List<Long> additionalUids = search(xid, indexedField2, res2.l0, res2.r0);
 
                     if ("and".equals(where.logicOp)) {
                         uids.retainAll(additionalUids); // 取交集
@@ -416,7 +478,7 @@ public class Table {
         } else {
             // 如果第一个条件字段没有索引但第二个条件字段有索引
             CalWhereRes res = calWhere(indexedField2, where.singleExp2);
-            uids = indexedField2.search(res.l0, res.r0);
+            uids = search(xid, indexedField2, res.l0, res.r0);
 
             // 因为第一个条件字段没有索引，需要全表扫描
             List<Long> additionalUids = performFullTableScanWithCondition(new Where(where.singleExp1), xid);
@@ -439,32 +501,78 @@ public class Table {
                 .orElse(null);
     }
 
-    private List<Long> getAllUid() throws Exception {
-        Field fd = null;
+    // 第一个索引保存每个版本的项，负数键和字符串的哈希键也要扫描到，所以查找整个 long 范围
+    List<Long> getAllUid() throws Exception {
+        Field fd = firstIndexedField();
+        if (fd == null) {
+            return new ArrayList<>();
+        }
+        return fd.search(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    // 全表扫描，可串行化事务在第一个索引的整个范围上登记谓词锁
+    private List<Long> getAllUid(long xid) throws Exception {
+        Field fd = firstIndexedField();
+        if (fd == null) {
+            return new ArrayList<>();
+        }
+        ((TableManagerImpl) tbm).vm.readRange(xid, fd.uid, Long.MIN_VALUE, Long.MAX_VALUE);
+        return fd.search(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private Field firstIndexedField() {
         for (Field field : fields) {
             if (field.isIndexed()) {
-                fd = field;
-                break;
+                return field;
             }
         }
-        return fd.search(0, Integer.MAX_VALUE);
+        return null;
+    }
+
+    // 按索引查找，可串行化事务先登记谓词锁
+    private List<Long> search(long xid, Field field, long left, long right) throws Exception {
+        ((TableManagerImpl) tbm).vm.readRange(xid, field.uid, left, right);
+        return field.search(left, right);
+    }
+
+    // 插入索引，可串行化事务与读过该范围的并发事务形成读写依赖
+    private void insertIndex(long xid, Field field, Object value, long uid) throws Exception {
+        ((TableManagerImpl) tbm).vm.insertKey(xid, field.uid, field.value2Uid(value));
+        field.insert(value, uid);
     }
 
     private List<Long> performFullTableScanWithCondition(Where where, long xid) throws Exception {
         List<Long> uids = new ArrayList<>();
-        for (Long uid : getAllUid()) {
-            byte[] data = ((TableManagerImpl) tbm).vm.read(xid, uid);
-            if (data == null) continue;
+        List<Long> allUid = getAllUid(xid);
+        ((TableManagerImpl) tbm).dm.beginScan();
+        try {
+            for (int i = 0; i < allUid.size(); i++) {
+                prefetchAhead(allUid, i);
+                Long uid = allUid.get(i);
+                byte[] data = ((TableManagerImpl) tbm).vm.read(xid, uid);
+                if (data == null) continue;
 
-            Map<String, Object> record = parseEntry(data);
+                Map<String, Object> record = parseEntry(data);
 
-            if (satisfiesCondition(record, where)) {
-                uids.add(uid);
+                if (satisfiesCondition(record, where)) {
+                    uids.add(uid);
+                }
             }
+        } finally {
+            ((TableManagerImpl) tbm).dm.endScan();
         }
         return uids;
     }
 
+    // 扫描到第 i 个 uid 时，每隔 PREFETCH_WINDOW 个提示数据层预读后面两个窗口内的页面
+    private void prefetchAhead(List<Long> uids, int i) {
+        if (i % PREFETCH_WINDOW != 0) {
+            return;
+        }
+        int end = Math.min(uids.size(), i + 2 * PREFETCH_WINDOW);
+        ((TableManagerImpl) tbm).dm.prefetch(uids.subList(i, end));
+    }
+
     private boolean satisfiesCondition(Map<String, Object> record, Where where) throws Exception {
         // 先初始化处理singleExp1
         boolean result1 = checkSingleCondition(record, where.singleExp1);
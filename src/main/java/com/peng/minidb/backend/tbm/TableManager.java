@@ -1,5 +1,7 @@
 package com.peng.minidb.backend.tbm;
 
+import java.util.Map;
+
 import com.peng.minidb.backend.dm.DataManager;
 import com.peng.minidb.backend.parser.statement.*;
 import com.peng.minidb.backend.parser.statement.DeleteObj;
@@ -20,6 +22,15 @@ public interface TableManager {
     byte[] update(long xid, UpdateObj updateObj) throws Exception;
     byte[] delete(long xid, DeleteObj deleteObj) throws Exception;
 
+    // 各级缓存和刷盘的运行统计，按固定顺序排列
+    Map<String, Object> status();
+
+    // 冻结所有表中旧事务留下的 XMIN / XMAX，并截断事务状态文件
+    void freeze() throws Exception;
+
+    // 回收所有表中对任何事务都不可见的旧版本及其索引项，空间重新用于插入
+    void vacuum() throws Exception;
+
     // void close();
 
     public static TableManager create(String path, VersionManager vm, DataManager dm) {
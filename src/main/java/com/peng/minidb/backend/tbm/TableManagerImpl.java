@@ -22,6 +22,11 @@ public class TableManagerImpl implements TableManager {
     private Map<Long, List<Table>> xidTableCache;
     private Lock lock;
     private Set<String> prohibitTables;
+    // 冻结与回收互斥：冻结截断事务状态后，回收不能再用之前读到的 XMAX 查询状态
+    private Lock maintainLock;
+    private int[] reclaimPages;         // 上一轮回收中物理删除的页面，尚未回收空间
+    private long reclaimFence;          // 物理删除完成后开始的空事务，早于它的事务可能还持有被删除的 uid
+    private volatile long vacuumed;     // 回收的版本数
 
     TableManagerImpl(VersionManager vm, DataManager dm, Booter booter) {
         this.vm = vm;
@@ -30,6 +35,7 @@ public class TableManagerImpl implements TableManager {
         this.tableCache = new HashMap<>();
         this.xidTableCache = new HashMap<>();
         lock = new ReentrantLock();
+        maintainLock = new ReentrantLock();
         this.prohibitTables = new HashSet<>();
         Collections.addAll(this.prohibitTables,
                 "select", "insert", "update", "delete", "create",
@@ -37,6 +43,8 @@ public class TableManagerImpl implements TableManager {
                 "union", "null", "index", "table", "column", "database"
                 );
         loadTables();
+        new Freezer(this, vm);
+        new Vacuum(this, vm);
     }
 
     private void loadTables() {
@@ -87,6 +95,16 @@ public class TableManagerImpl implements TableManager {
             String[] columns = null;
             Map<String, Object> columnData = null;
 
+            if (stat.isStatus) {
+                columns = new String[] { "name", "value" };
+                for (Map.Entry<String, Object> e : status().entrySet()) {
+                    columnData = new HashMap<>();
+                    columnData.put("name", e.getKey());
+                    columnData.put("value", e.getValue());
+                    entries.add(columnData);
+                }
+                return PrintUtil.printTable(columns, entries).getBytes();
+            }
             if (stat.isTable) {
                 columns = Arrays.asList("tables").toArray(new String[0]);
                 for (String tableName : tableCache.keySet()) {
@@ -117,6 +135,92 @@ public class TableManagerImpl implements TableManager {
 
     }
 
+    @Override
+    public Map<String, Object> status() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        dm.status(out);
+        vm.status(out);
+        out.put("vacuum.versions", vacuumed);
+        return out;
+    }
+
+    @Override
+    public void freeze() throws Exception {
+        maintainLock.lock();
+        try {
+            // 在自己的事务中确定界限，早于界限的事务都已结束，之后收集到的记录包含它们写入的所有记录
+            long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+            try {
+                long horizon = vm.freezeHorizon();
+                List<Long> uids = new ArrayList<>();
+                lock.lock();
+                try {
+                    for (Table table : tableCache.values()) {
+                        uids.add(table.uid);
+                        for (Field field : table.fields) {
+                            uids.add(field.uid);
+                        }
+                        uids.addAll(table.getAllUid());
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                vm.freeze(uids, horizon);
+            } finally {
+                vm.commit(xid);
+            }
+        } finally {
+            maintainLock.unlock();
+        }
+    }
+
+    /**
+     * 先回收上一轮物理删除的页面，再扫描各表删除死亡的版本
+     * 删除索引项之前开始的事务可能已经拿到了版本的 uid，空间复用后会读到别的记录，
+     * 所以删除后开始一个空事务作为界限，等界限之前的事务都结束后，下一轮才回收空间
+     */
+    @Override
+    public void vacuum() throws Exception {
+        maintainLock.lock();
+        try {
+            long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+            try {
+                long horizon = vm.freezeHorizon();
+                if (reclaimPages != null && horizon > reclaimFence) {
+                    dm.reclaim(reclaimPages);
+                    reclaimPages = null;
+                }
+                List<Table> tables;
+                lock.lock();
+                try {
+                    tables = new ArrayList<>(tableCache.values());
+                } finally {
+                    lock.unlock();
+                }
+                for (Table table : tables) {
+                    vacuumed += table.vacuum(xid, horizon);
+                }
+            } finally {
+                vm.commit(xid);
+            }
+
+            int[] pages = dm.takeDeletedPages();
+            if (pages.length > 0) {
+                if (reclaimPages != null) {
+                    int[] merged = Arrays.copyOf(reclaimPages, reclaimPages.length + pages.length);
+                    System.arraycopy(pages, 0, merged, reclaimPages.length, pages.length);
+                    pages = merged;
+                }
+                long fence = vm.begin(IsolationLevel.READ_COMMITTED);
+                vm.commit(fence);
+                reclaimPages = pages;
+                reclaimFence = fence;
+            }
+        } finally {
+            maintainLock.unlock();
+        }
+    }
+
     @Override
     public byte[] create(long xid, Create create) throws Exception {
         lock.lock();
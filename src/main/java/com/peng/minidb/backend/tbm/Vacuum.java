@@ -0,0 +1,50 @@
+package com.peng.minidb.backend.tbm;
+
+import com.peng.minidb.backend.utils.Panic;
+import com.peng.minidb.backend.vm.VersionManager;
+
+/**
+ * 后台回收线程
+ *
+ * 删除和更新只设置旧版本的 XMAX，旧版本和它的索引项一直留在原处，表只增不减
+ * 自上次回收以来删除的版本超过 VACUUM_THRESHOLD 个时回收一次：扫描所有表，
+ * 删除对任何事务都不可见的版本的索引项并物理删除，页面末尾的空间在下一次回收时重新用于插入
+ */
+class Vacuum implements Runnable {
+
+    private static final long VACUUM_THRESHOLD = 1L << 12;
+    private static final long POLL_MS = 1000;
+
+    private TableManager tbm;
+    private VersionManager vm;
+    private long lastCount;
+
+    Vacuum(TableManager tbm, VersionManager vm) {
+        this.tbm = tbm;
+        this.vm = vm;
+        Thread thread = new Thread(this, "vacuum");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while(true) {
+            try {
+                Thread.sleep(POLL_MS);
+            } catch(InterruptedException e) {
+                return;
+            }
+            long count = vm.deleteCount();
+            if(count - lastCount < VACUUM_THRESHOLD) {
+                continue;
+            }
+            try {
+                tbm.vacuum();
+            } catch(Exception e) {
+                Panic.panic(e);
+            }
+            lastCount = count;
+        }
+    }
+}
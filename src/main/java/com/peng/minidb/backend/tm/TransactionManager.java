@@ -17,6 +17,12 @@ public interface TransactionManager {
     boolean isActive(long xid);
     boolean isCommitted(long xid);
     boolean isAborted(long xid);
+    // 把延迟写入的事务状态落盘
+    void flush();
+    // XID 文件中保留状态的事务个数
+    long statusCount();
+    // 丢弃 xid 之前的事务状态，它们之后都视为已提交
+    void truncate(long xid);
     void close();
 
     public static TransactionManagerImpl create(String path) {
@@ -50,7 +56,7 @@ public interface TransactionManager {
             Panic.panic(e);
         }
         
-        return new TransactionManagerImpl(raf, fc);
+        return new TransactionManagerImpl(path, raf, fc);
     }
 
     public static TransactionManagerImpl open(String path) {
@@ -71,6 +77,6 @@ public interface TransactionManager {
            Panic.panic(e);
         }
 
-        return new TransactionManagerImpl(raf, fc);
+        return new TransactionManagerImpl(path, raf, fc);
     }
 }
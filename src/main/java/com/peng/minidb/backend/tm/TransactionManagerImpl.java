@@ -1,11 +1,19 @@
 package com.peng.minidb.backend.tm;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.peng.minidb.backend.utils.Panic;
 import com.peng.minidb.backend.utils.Parser;
@@ -13,8 +21,8 @@ import com.peng.minidb.common.Error;
 
 public class TransactionManagerImpl implements TransactionManager {
 
-    // XID文件头长度
-    static final int LEN_XID_HEADER_LENGTH = 8;
+    // XID文件头：[XIDCounter 8] [FrozenXid 8]
+    static final int LEN_XID_HEADER_LENGTH = 16;
     // 每个事务的占用长度
     private static final int XID_FIELD_SIZE = 1;
 
@@ -26,23 +34,57 @@ public class TransactionManagerImpl implements TransactionManager {
     // 超级事务，永远为commited状态
     public static final long SUPER_XID = 0;
 
+    // 冻结时未提交事务插入的记录，XMIN 和 XMAX 都改为它，永远为 aborted 状态
+    public static final long ABORTED_XID = Long.MAX_VALUE;
+
     static final String XID_SUFFIX = ".xid";
+    static final String XID_TMP_SUFFIX = ".xid_tmp";
+
+    // 每次租用的 xid 数量
+    private static final int XID_LEASE = 1024;
+
+    // 内存中的事务状态按块保存，块一旦分配就不再替换，扩容只复制块的引用
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
     
+    private String path;
     private RandomAccessFile file;
     private FileChannel fc;
-    private long xidCounter;
-    private Lock counterLock;
+    // 写状态、fsync 时持有读锁，截断时持有写锁替换文件
+    private ReadWriteLock fileLock;
+    // XID 文件头记录的是已租用的最大 xid，文件中为这些 xid 预留了状态，初始为 0 即活跃
+    // begin 只需原子地取下一个 xid，用完租用的范围时才写文件头并 fsync 一次
+    // 重启后从文件头之后开始分配，上次租用但没有用到的 xid 不会再使用
+    private volatile long xidCounter;   // 已租用的最大 xid
+    private AtomicLong lastXid;         // 最近分配的 xid
+    private Lock counterLock;           // 租用新的范围时持有
+
+    // 不大于 frozenXid 的事务状态已从文件中丢弃，都视为已提交
+    // 引用这些事务的记录已经冻结，文件中只保留 (frozenXid, xidCounter] 的状态
+    private volatile long frozenXid;
+
+    // 所有事务状态在内存中的副本，查询只读内存，XID 文件只用于持久化
+    // chunks[i][j] 为 xid = i*CHUNK_SIZE + j + 1 的状态，整块都已冻结时为 null
+    // 修改状态后重新写一次 chunks，读取时先读 chunks，借助 volatile 保证读到已写入的状态
+    private volatile byte[][] chunks;
 
-    TransactionManagerImpl(RandomAccessFile raf, FileChannel fc) {
+    TransactionManagerImpl(String path, RandomAccessFile raf, FileChannel fc) {
+        this.path = path;
         this.file = raf;
         this.fc = fc;
         counterLock = new ReentrantLock();
+        fileLock = new ReentrantReadWriteLock();
+        chunks = new byte[0][];
         checkXIDCounter();
+        loadStatus();
+        lastXid = new AtomicLong(xidCounter);
     }
 
     /**
      * 检查XID文件是否合法
-     * 读取XID_FILE_HEADER中的xidcounter，根据它计算文件的理论长度，对比实际长度
+     * 读取XID_FILE_HEADER中的xidcounter和frozenXid，根据它们计算文件的理论长度，对比实际长度
+     * 租用新范围时先扩展文件再写文件头，中途崩溃时两者可能不一致，
+     * 此时以文件头为准调整文件长度：多出的部分没有分配过，缺少的部分状态为活跃
      */
     private void checkXIDCounter() {
         long fileLen = 0;
@@ -62,67 +104,162 @@ public class TransactionManagerImpl implements TransactionManager {
         } catch (IOException e) {
             Panic.panic(e);
         }
-        this.xidCounter = Parser.parseLong(buf.array());
+        this.xidCounter = Parser.parseLong(buf.array(), 0);
+        this.frozenXid = Parser.parseLong(buf.array(), 8);
+        if(this.xidCounter < 0 || this.frozenXid < 0 || this.frozenXid > this.xidCounter) {
+            Panic.panic(Error.BadXIDFileException);
+        }
         long end = getXidPosition(this.xidCounter + 1);
         if(end != fileLen) {
-            Panic.panic(Error.BadXIDFileException);
+            try {
+                file.setLength(end);
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
         }
     }
 
-    // 根据事务xid取得其在xid文件中对应的位置
-    private long getXidPosition(long xid) {
-        return LEN_XID_HEADER_LENGTH + (xid-1)*XID_FIELD_SIZE;
+    // 把 XID 文件中所有事务的状态读入内存，整块都已冻结的不分配
+    private void loadStatus() {
+        ensureChunk(xidCounter);
+        dropFrozenChunks();
+        for (int i = 0; i < chunks.length; i ++) {
+            if(chunks[i] == null) {
+                continue;
+            }
+            long first = Math.max((long)i << CHUNK_SHIFT, frozenXid);
+            long last = Math.min((long)(i + 1) << CHUNK_SHIFT, xidCounter);
+            ByteBuffer buf = ByteBuffer.wrap(chunks[i], (int)(first - ((long)i << CHUNK_SHIFT)), (int)(last - first));
+            long pos = getXidPosition(first + 1) - buf.position();
+            try {
+                while(buf.hasRemaining()) {
+                    if(fc.read(buf, pos + buf.position()) < 0) {
+                        Panic.panic(Error.BadXIDFileException);
+                    }
+                }
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+        }
     }
 
-    // 更新xid事务的状态为status
-    private void updateXID(long xid, byte status) {
-        long offset = getXidPosition(xid);
-        byte[] tmp = new byte[XID_FIELD_SIZE];
-        tmp[0] = status;
-        ByteBuffer buf = ByteBuffer.wrap(tmp);
-        try {
-            fc.position(offset);
-            fc.write(buf);
-        } catch (IOException e) {
-            Panic.panic(e);
+    // 释放整块都不大于 frozenXid 的状态
+    private void dropFrozenChunks() {
+        byte[][] cs = chunks;
+        for (int i = 0; i < cs.length && ((long)(i + 1) << CHUNK_SHIFT) <= frozenXid; i ++) {
+            cs[i] = null;
         }
-        try {
-            fc.force(false);
-        } catch (IOException e) {
-            Panic.panic(e);
+        chunks = cs;
+    }
+
+    // 保证 xid 所在的块已分配，只在持有 counterLock 或初始化时调用
+    private void ensureChunk(long xid) {
+        if(xid <= 0) {
+            return;
+        }
+        int n = (int)((xid - 1) >>> CHUNK_SHIFT) + 1;
+        byte[][] cs = chunks;
+        if(n <= cs.length) {
+            return;
+        }
+        byte[][] grown = Arrays.copyOf(cs, n);
+        for (int i = cs.length; i < n; i ++) {
+            grown[i] = new byte[CHUNK_SIZE];
         }
+        chunks = grown;
     }
 
-    // 将XID加一，并更新XID Header
-    private void incrXIDCounter() {
-        xidCounter ++;
-        ByteBuffer buf = ByteBuffer.wrap(Parser.long2Byte(xidCounter));
-        try {
-            fc.position(0);
-            fc.write(buf);
-        } catch (IOException e) {
-            Panic.panic(e);
+    private void setStatus(long xid, byte status) {
+        byte[][] cs = chunks;
+        cs[(int)((xid - 1) >>> CHUNK_SHIFT)][(int)((xid - 1) & (CHUNK_SIZE - 1))] = status;
+        chunks = cs;
+    }
+
+    // 尚未分配的 xid 与文件末尾之后一样，视为活跃；已冻结的视为已提交
+    private byte getStatus(long xid) {
+        if(xid == ABORTED_XID) {
+            return FIELD_TRAN_ABORTED;
+        }
+        if(xid <= 0) {
+            return FIELD_TRAN_ACTIVE;
         }
+        if(xid <= frozenXid) {
+            return FIELD_TRAN_COMMITTED;
+        }
+        byte[][] cs = chunks;
+        int c = (int)((xid - 1) >>> CHUNK_SHIFT);
+        if(c >= cs.length) {
+            return FIELD_TRAN_ACTIVE;
+        }
+        // 读 frozenXid 之后这一块才被冻结释放
+        byte[] chunk = cs[c];
+        if(chunk == null) {
+            return FIELD_TRAN_COMMITTED;
+        }
+        return chunk[(int)((xid - 1) & (CHUNK_SIZE - 1))];
+    }
+
+    // 根据事务xid取得其在xid文件中对应的位置
+    private long getXidPosition(long xid) {
+        return LEN_XID_HEADER_LENGTH + (xid-frozenXid-1)*XID_FIELD_SIZE;
+    }
+
+    // 更新xid事务的状态为status，先写文件再更新内存
+    // 不 fsync：提交以 WAL 中的提交日志为准，检查点回收日志之前调用 flush 落盘
+    // 已冻结的事务只可能来自恢复时重放的提交日志，忽略即可
+    private void updateXID(long xid, byte status) {
+        fileLock.readLock().lock();
         try {
-            fc.force(false);
-        } catch (IOException e) {
-            Panic.panic(e);
+            if(xid <= frozenXid) {
+                return;
+            }
+            long offset = getXidPosition(xid);
+            byte[] tmp = new byte[XID_FIELD_SIZE];
+            tmp[0] = status;
+            ByteBuffer buf = ByteBuffer.wrap(tmp);
+            try {
+                // 定位写，提交和回滚可能与 begin 并发，不能依赖通道位置
+                fc.write(buf, offset);
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+            setStatus(xid, status);
+        } finally {
+            fileLock.readLock().unlock();
         }
     }
 
-    // 开始一个事务，并返回XID
-    public long begin() {
+    // 租用到至少包含 xid 的新范围：先把文件扩展到新的长度，再更新 XID Header，一起 fsync 后才能分配
+    private void leaseXID(long xid) {
         counterLock.lock();
         try {
-            long xid = xidCounter + 1;
-            updateXID(xid, FIELD_TRAN_ACTIVE);
-            incrXIDCounter();
-            return xid;
+            if(xid <= xidCounter) {
+                return;
+            }
+            long counter = xid + XID_LEASE - 1;
+            ensureChunk(counter);
+            try {
+                file.setLength(getXidPosition(counter + 1));
+                fc.write(ByteBuffer.wrap(Parser.long2Byte(counter)), 0);
+                fc.force(false);
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+            xidCounter = counter;
         } finally {
             counterLock.unlock();
         }
     }
 
+    // 开始一个事务，并返回XID，新事务的状态在文件和内存中都已是活跃，不需要写入
+    public long begin() {
+        long xid = lastXid.incrementAndGet();
+        if(xid > xidCounter) {
+            leaseXID(xid);
+        }
+        return xid;
+    }
+
     // 提交XID事务
     public void commit(long xid) {
         updateXID(xid, FIELD_TRAN_COMMITTED);
@@ -133,17 +270,9 @@ public class TransactionManagerImpl implements TransactionManager {
         updateXID(xid, FIELD_TRAN_ABORTED);
     }
 
-    // 检测XID事务是否处于status状态
+    // 检测XID事务是否处于status状态，只读内存
     private boolean checkXID(long xid, byte status) {
-        long offset = getXidPosition(xid);
-        ByteBuffer buf = ByteBuffer.wrap(new byte[XID_FIELD_SIZE]);
-        try {
-            fc.position(offset);
-            fc.read(buf);
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
-        return buf.array()[0] == status;
+        return getStatus(xid) == status;
     }
 
     public boolean isActive(long xid) {
@@ -161,12 +290,80 @@ public class TransactionManagerImpl implements TransactionManager {
         return checkXID(xid, FIELD_TRAN_ABORTED);
     }
 
+    // 已关闭时状态已在 close 中落盘
+    public void flush() {
+        fileLock.readLock().lock();
+        try {
+            if(!fc.isOpen()) {
+                return;
+            }
+            fc.force(false);
+        } catch (IOException e) {
+            Panic.panic(e);
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    public long statusCount() {
+        return xidCounter - frozenXid;
+    }
+
+    /**
+     * 丢弃 xid 之前所有事务的状态，之后它们都视为已提交
+     * 调用者保证这些事务都已结束，引用其中未提交事务的记录都已冻结并落盘
+     * 与 Checkpointer 一样，先把保留的状态写入临时文件，再原子替换 XID 文件
+     */
+    public void truncate(long xid) {
+        counterLock.lock();
+        fileLock.writeLock().lock();
+        try {
+            long frozen = Math.min(xid - 1, xidCounter);
+            if(frozen <= frozenXid) {
+                return;
+            }
+            File f = new File(path + XID_SUFFIX);
+            File tmp = new File(path + XID_TMP_SUFFIX);
+            byte[] header = new byte[LEN_XID_HEADER_LENGTH];
+            System.arraycopy(Parser.long2Byte(xidCounter), 0, header, 0, 8);
+            System.arraycopy(Parser.long2Byte(frozen), 0, header, 8, 8);
+            // 内存中的状态与文件一致，且包含尚未 fsync 的部分
+            byte[][] cs = chunks;
+            try(FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(header);
+                for (long first = frozen; first < xidCounter; ) {
+                    int c = (int)(first >>> CHUNK_SHIFT);
+                    long last = Math.min((long)(c + 1) << CHUNK_SHIFT, xidCounter);
+                    out.write(cs[c], (int)(first - ((long)c << CHUNK_SHIFT)), (int)(last - first));
+                    first = last;
+                }
+                out.getFD().sync();
+            }
+            fc.close();
+            file.close();
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            file = new RandomAccessFile(f, "rw");
+            fc = file.getChannel();
+            frozenXid = frozen;
+            dropFrozenChunks();
+        } catch (IOException e) {
+            Panic.panic(e);
+        } finally {
+            fileLock.writeLock().unlock();
+            counterLock.unlock();
+        }
+    }
+
     public void close() {
+        flush();
+        fileLock.writeLock().lock();
         try {
             fc.close();
             file.close();
         } catch (IOException e) {
             Panic.panic(e);
+        } finally {
+            fileLock.writeLock().unlock();
         }
     }
 
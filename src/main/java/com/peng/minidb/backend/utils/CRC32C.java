@@ -0,0 +1,53 @@
+package com.peng.minidb.backend.utils;
+
+/**
+ * CRC-32C（Castagnoli）校验，slicing-by-8 查表实现
+ * java.util.zip.CRC32C 从 Java 9 才有，项目目标版本是 Java 8
+ */
+public class CRC32C {
+
+    private static final int POLY = 0x82F63B78;     // 反射形式的多项式
+
+    private static final int[][] TABLE = new int[8][256];
+
+    static {
+        for (int n = 0; n < 256; n ++) {
+            int crc = n;
+            for (int k = 0; k < 8; k ++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLY : crc >>> 1;
+            }
+            TABLE[0][n] = crc;
+        }
+        for (int n = 0; n < 256; n ++) {
+            int crc = TABLE[0][n];
+            for (int k = 1; k < 8; k ++) {
+                crc = (crc >>> 8) ^ TABLE[0][crc & 0xff];
+                TABLE[k][n] = crc;
+            }
+        }
+    }
+
+    public static int compute(byte[] b, int off, int len) {
+        return update(0, b, off, len);
+    }
+
+    /**
+     * 在 crc 的基础上继续计算 b[off, off+len)，分段计算的结果与整体计算相同
+     */
+    public static int update(int crc, byte[] b, int off, int len) {
+        int[] t0 = TABLE[0], t1 = TABLE[1], t2 = TABLE[2], t3 = TABLE[3];
+        int[] t4 = TABLE[4], t5 = TABLE[5], t6 = TABLE[6], t7 = TABLE[7];
+        crc = ~crc;
+        int end = off + len;
+        while(end - off >= 8) {
+            crc ^= (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+            crc = t7[crc & 0xff] ^ t6[(crc >>> 8) & 0xff] ^ t5[(crc >>> 16) & 0xff] ^ t4[crc >>> 24]
+                    ^ t3[b[off + 4] & 0xff] ^ t2[b[off + 5] & 0xff] ^ t1[b[off + 6] & 0xff] ^ t0[b[off + 7] & 0xff];
+            off += 8;
+        }
+        while(off < end) {
+            crc = (crc >>> 8) ^ t0[(crc ^ b[off ++]) & 0xff];
+        }
+        return ~crc;
+    }
+}
@@ -0,0 +1,171 @@
+package com.peng.minidb.backend.utils;
+
+/**
+ * LZ4 块格式的压缩与解压，纯 Java 实现，用于压缩较大的日志
+ *
+ * 压缩结果由若干序列组成，每个序列为：
+ * [Token] [LiteralLength+] [Literals] [Offset] [MatchLength+]
+ * Token 高 4 位为字面量长度，低 4 位为匹配长度减 4，为 15 时后面跟若干字节继续累加，遇到不为 255 的字节结束
+ * Offset 2字节，小端，匹配内容在已输出数据中向前的距离
+ * 最后一个序列只有字面量；最后 5 个字节总是字面量，最后一个匹配至少在结尾 12 个字节之前开始
+ */
+public class LZ4 {
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6;          // 连续找不到匹配时逐渐加大步长
+
+    /**
+     * 压缩 len 个字节最多需要的输出空间
+     */
+    public static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    /**
+     * 压缩 src[off, off+len) 写到 dst[dstOff] 开始的位置，返回压缩后的长度
+     * dst 至少要有 maxCompressedLength(len) 的空间
+     */
+    public static int compress(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        int end = off + len;
+        int matchLimit = end - LAST_LITERALS;
+        int mfLimit = end - MF_LIMIT;
+        int anchor = off, ip = off, op = dstOff;
+
+        if(len > MF_LIMIT) {
+            int[] table = new int[1 << HASH_LOG];       // 位置 - off + 1，0 表示空
+            int searches = 1 << SKIP_TRIGGER;
+            while(ip < mfLimit) {
+                int seq = readInt(src, ip);
+                int h = hash(seq);
+                int ref = table[h] - 1 + off;
+                table[h] = ip - off + 1;
+                if(ref < off || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                    ip += searches ++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                searches = 1 << SKIP_TRIGGER;
+
+                // 向前扩展到上一段的结尾，向后扩展到不能再匹配
+                while(ip > anchor && ref > off && src[ip-1] == src[ref-1]) {
+                    ip --;
+                    ref --;
+                }
+                int matchLen = MIN_MATCH;
+                while(ip + matchLen < matchLimit && src[ip+matchLen] == src[ref+matchLen]) {
+                    matchLen ++;
+                }
+
+                op = writeLiterals(dst, op, src, anchor, ip - anchor, matchLen - MIN_MATCH);
+                dst[op ++] = (byte)(ip - ref);
+                dst[op ++] = (byte)((ip - ref) >>> 8);
+                if(matchLen - MIN_MATCH >= 15) {
+                    op = writeLength(dst, op, matchLen - MIN_MATCH - 15);
+                }
+                ip += matchLen;
+                anchor = ip;
+            }
+        }
+        op = writeLiterals(dst, op, src, anchor, end - anchor, 0);
+        return op - dstOff;
+    }
+
+    /**
+     * 把 src[off, off+len) 解压到 dst[dstOff, dstOff+dstLen)，返回解压后的长度，输入不合法时返回 -1
+     */
+    public static int decompress(byte[] src, int off, int len, byte[] dst, int dstOff, int dstLen) {
+        int ip = off, end = off + len;
+        int op = dstOff, dstEnd = dstOff + dstLen;
+        while(ip < end) {
+            int token = src[ip ++] & 0xff;
+            int litLen = token >>> 4;
+            if(litLen == 15) {
+                int b;
+                do {
+                    if(ip >= end) {
+                        return -1;
+                    }
+                    b = src[ip ++] & 0xff;
+                    litLen += b;
+                } while(b == 255);
+            }
+            if(litLen > end - ip || litLen > dstEnd - op) {
+                return -1;
+            }
+            System.arraycopy(src, ip, dst, op, litLen);
+            ip += litLen;
+            op += litLen;
+            if(ip == end) {
+                break;
+            }
+
+            if(end - ip < 2) {
+                return -1;
+            }
+            int offset = (src[ip] & 0xff) | (src[ip+1] & 0xff) << 8;
+            ip += 2;
+            if(offset == 0 || offset > op - dstOff) {
+                return -1;
+            }
+            int matchLen = token & 15;
+            if(matchLen == 15) {
+                int b;
+                do {
+                    if(ip >= end) {
+                        return -1;
+                    }
+                    b = src[ip ++] & 0xff;
+                    matchLen += b;
+                } while(b == 255);
+            }
+            matchLen += MIN_MATCH;
+            if(matchLen > dstEnd - op) {
+                return -1;
+            }
+            int ref = op - offset;
+            if(offset >= matchLen) {
+                System.arraycopy(dst, ref, dst, op, matchLen);
+            } else {
+                // 匹配与输出重叠，逐字节复制
+                for (int i = 0; i < matchLen; i ++) {
+                    dst[op+i] = dst[ref+i];
+                }
+            }
+            op += matchLen;
+        }
+        return op - dstOff;
+    }
+
+    // 写出 Token、字面量长度和字面量，matchCode 为匹配长度减 4
+    private static int writeLiterals(byte[] dst, int op, byte[] src, int start, int len, int matchCode) {
+        int token = Math.min(matchCode, 15);
+        if(len >= 15) {
+            dst[op ++] = (byte)(0xf0 | token);
+            op = writeLength(dst, op, len - 15);
+        } else {
+            dst[op ++] = (byte)(len << 4 | token);
+        }
+        System.arraycopy(src, start, dst, op, len);
+        return op + len;
+    }
+
+    private static int writeLength(byte[] dst, int op, int n) {
+        while(n >= 255) {
+            dst[op ++] = (byte)255;
+            n -= 255;
+        }
+        dst[op ++] = (byte)n;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off+1] & 0xff) << 8 | (b[off+2] & 0xff) << 16 | (b[off+3] & 0xff) << 24;
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
@@ -25,6 +25,11 @@ public class Parser {
         return buffer.getInt();
     }
 
+    // 从 buf[off] 开始解析，不分配内存
+    public static int parseInt(byte[] buf, int off) {
+        return (buf[off] & 0xff) << 24 | (buf[off + 1] & 0xff) << 16 | (buf[off + 2] & 0xff) << 8 | (buf[off + 3] & 0xff);
+    }
+
     public static float parseFloat(byte[] buf) {
         ByteBuffer buffer = ByteBuffer.wrap(buf, 0, 4);
         return buffer.getFloat();
@@ -35,6 +40,10 @@ public class Parser {
         return buffer.getLong();
     }
 
+    public static long parseLong(byte[] buf, int off) {
+        return (long)parseInt(buf, off) << 32 | (parseInt(buf, off + 4) & 0xffffffffL);
+    }
+
     public static double parseDouble(byte[] buf) {
         ByteBuffer buffer = ByteBuffer.wrap(buf, 0, 8);
         return buffer.getDouble();
@@ -6,6 +6,8 @@ import com.google.common.primitives.Bytes;
 
 import com.peng.minidb.backend.common.SubArray;
 import com.peng.minidb.backend.dm.dataItem.DataItem;
+import com.peng.minidb.backend.tm.TransactionManager;
+import com.peng.minidb.backend.tm.TransactionManagerImpl;
 import com.peng.minidb.backend.utils.Parser;
 
 /**
@@ -96,6 +98,64 @@ public class Entry {
         }
     }
 
+    /**
+     * 冻结早于 horizon 的事务留下的 XMIN / XMAX，之后不再需要查询这些事务的状态
+     * 已提交的 XMIN 改为 SUPER_XID；未提交的 XMIN 连同 XMAX 都改为 ABORTED_XID，对所有事务都不可见
+     * 未提交的 XMAX 清零；已提交的 XMAX 保留，状态截断后仍视为已提交
+     * 返回是否修改了记录
+     */
+    public boolean freeze(TransactionManager tm, long horizon) {
+        dataItem.lock();
+        try {
+            SubArray sa = dataItem.data();
+            long xmin = Parser.parseLong(sa.raw, sa.start+OF_XMIN);
+            long xmax = Parser.parseLong(sa.raw, sa.start+OF_XMAX);
+            long newXmin = xmin, newXmax = xmax;
+            if(xmin != TransactionManagerImpl.SUPER_XID && xmin < horizon) {
+                if(tm.isCommitted(xmin)) {
+                    newXmin = TransactionManagerImpl.SUPER_XID;
+                } else {
+                    newXmin = newXmax = TransactionManagerImpl.ABORTED_XID;
+                }
+            }
+            if(newXmax != TransactionManagerImpl.ABORTED_XID && xmax != 0 && xmax < horizon && !tm.isCommitted(xmax)) {
+                newXmax = 0;
+            }
+            if(newXmin == xmin && newXmax == xmax) {
+                return false;
+            }
+            dataItem.before();
+            try {
+                System.arraycopy(Parser.long2Byte(newXmin), 0, sa.raw, sa.start+OF_XMIN, 8);
+                System.arraycopy(Parser.long2Byte(newXmax), 0, sa.raw, sa.start+OF_XMAX, 8);
+            } finally {
+                dataItem.after(TransactionManagerImpl.SUPER_XID);
+            }
+            return true;
+        } finally {
+            dataItem.unlock();
+        }
+    }
+
+    /**
+     * 版本对 xmin 不早于 horizon 的所有快照都不可见：插入它的事务已中止，或删除它的事务早于 horizon 且已提交
+     * 早于 horizon 的事务不在任何快照中，已提交的删除对所有事务可见
+     */
+    public boolean isDead(TransactionManager tm, long horizon) {
+        dataItem.rLock();
+        try {
+            SubArray sa = dataItem.data();
+            long xmin = Parser.parseLong(sa.raw, sa.start+OF_XMIN);
+            long xmax = Parser.parseLong(sa.raw, sa.start+OF_XMAX);
+            if(xmin == TransactionManagerImpl.ABORTED_XID || (xmin < horizon && tm.isAborted(xmin))) {
+                return true;
+            }
+            return xmax != 0 && xmax < horizon && tm.isCommitted(xmax);
+        } finally {
+            dataItem.rUnLock();
+        }
+    }
+
     public long getUid() {
         return uid;
     }
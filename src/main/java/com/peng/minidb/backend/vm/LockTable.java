@@ -1,32 +1,37 @@
 package com.peng.minidb.backend.vm;
 
-import java.util.*;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import com.peng.minidb.backend.common.LongIntMap;
+import com.peng.minidb.backend.common.LongList;
+import com.peng.minidb.backend.common.LongLongMap;
+import com.peng.minidb.backend.common.LongObjectMap;
 import com.peng.minidb.common.Error;
 
 public class LockTable {
 
-    private Map<Long, List<Long>> x2u;  // 某个XID已获得的资源UID列表
-    private Map<Long, Long> u2x;        // UID被某个XID持有
-    private Map<Long, List<Long>> wait; // 正在等待UID的XID列表
-    private Map<Long, Lock> waitLock;   // 正在等待资源的XID的锁
-    private Map<Long, Long> waitU;      // XID正在等待的UID
+    private static final long NONE = -1;
+
+    private LongObjectMap<LongList> x2u;    // 某个XID已获得的资源UID列表
+    private LongLongMap u2x;                // UID被某个XID持有
+    private LongObjectMap<LongList> wait;   // 正在等待UID的XID列表
+    private LongObjectMap<Lock> waitLock;   // 正在等待资源的XID的锁
+    private LongLongMap waitU;              // XID正在等待的UID
     private Lock lock;
-    private Map<Long, Long> waitStartTime;  // 记录每个XID进入等待状态的时间
+    private LongLongMap waitStartTime;      // 记录每个XID进入等待状态的时间
     private static final int CHECK_INTERVAL_MS = 1000; // 检查间隔（0.6秒）
     private static final int TIMEOUT_THRESHOLD_MS = 30000; // 超时时间阈值（30秒）
 
 
     public LockTable() {
-        x2u = new HashMap<>();
-        u2x = new HashMap<>();
-        wait = new HashMap<>();
-        waitLock = new HashMap<>();
-        waitU = new HashMap<>();
+        x2u = new LongObjectMap<>();
+        u2x = new LongLongMap();
+        wait = new LongObjectMap<>();
+        waitLock = new LongObjectMap<>();
+        waitU = new LongLongMap();
         lock = new ReentrantLock();
-        waitStartTime = new HashMap<>();
+        waitStartTime = new LongLongMap();
         startTimeoutDeadlockChecker();
     }
 
@@ -66,10 +71,10 @@ public class LockTable {
     public void remove(long xid) {
         lock.lock();
         try {
-            List<Long> l = x2u.get(xid);
+            LongList l = x2u.get(xid);
             if (l != null) {
                 while (l.size() > 0) {
-                    Long uid = l.remove(0);
+                    long uid = l.removeFirst();
                     selectNewXID(uid); // 重新分配资源
                 }
             }
@@ -84,12 +89,12 @@ public class LockTable {
     // 从等待队列中选择一个xid来占用uid
     private void selectNewXID(long uid) {
         u2x.remove(uid);
-        List<Long> l = wait.get(uid);
+        LongList l = wait.get(uid);
         if (l == null) return;
         assert l.size() > 0;
 
         while (l.size() > 0) {
-            long xid = l.remove(0);
+            long xid = l.removeFirst();
             if (!waitLock.containsKey(xid)) {
                 continue;
             } else {
@@ -104,17 +109,17 @@ public class LockTable {
         if (l.size() == 0) wait.remove(uid);
     }
 
-    private Map<Long, Integer> xidStamp;
-    private Map<Long, Boolean> pathCache; // 路径缓存
+    private LongIntMap xidStamp;
+    private LongIntMap pathCache; // 路径缓存，1 表示有环，0 表示无环
     private int stamp;
 
     // 死锁检测，使用DFS
     private boolean hasDeadLock() {
-        xidStamp = new HashMap<>();
-        pathCache = new HashMap<>();
+        xidStamp = new LongIntMap();
+        pathCache = new LongIntMap();
         stamp = 1;
-        for (long xid : x2u.keySet()) {
-            if (xidStamp.getOrDefault(xid, 0) > 0) continue;
+        for (long xid : x2u.keys()) {
+            if (xidStamp.get(xid, 0) > 0) continue;
             stamp++;
             if (dfs(xid)) return true;
         }
@@ -123,67 +128,56 @@ public class LockTable {
 
     private boolean dfs(long xid) {
         // 如果路径缓存中已经有结果，直接返回缓存的值
-        if (pathCache.containsKey(xid)) {
-            return pathCache.get(xid);
+        int cached = pathCache.get(xid, -1);
+        if (cached >= 0) {
+            return cached == 1;
         }
 
-        Integer stp = xidStamp.get(xid);
-        if (stp != null && stp == stamp) {
-            pathCache.put(xid, true);  // 更新路径缓存
+        int stp = xidStamp.get(xid, 0);
+        if (stp != 0 && stp == stamp) {
+            pathCache.put(xid, 1);  // 更新路径缓存
             return true;
         }
-        if (stp != null && stp < stamp) {
-            pathCache.put(xid, false);  // 更新路径缓存
+        if (stp != 0 && stp < stamp) {
+            pathCache.put(xid, 0);  // 更新路径缓存
             return false;
         }
         xidStamp.put(xid, stamp);
 
-        Long uid = waitU.get(xid);
-        if (uid == null) {
-            pathCache.put(xid, false);  // 更新路径缓存
+        long uid = waitU.get(xid, NONE);
+        if (uid == NONE) {
+            pathCache.put(xid, 0);  // 更新路径缓存
             return false;
         }
-        Long x = u2x.get(uid);
-        boolean hasCycle = x != null && dfs(x);
-        pathCache.put(xid, hasCycle);  // 更新路径缓存
+        long x = u2x.get(uid, NONE);
+        boolean hasCycle = x != NONE && dfs(x);
+        pathCache.put(xid, hasCycle ? 1 : 0);  // 更新路径缓存
         return hasCycle;
     }
 
 
-    private void removeFromList(Map<Long, List<Long>> listMap, long uid0, long uid1) {
-        List<Long> l = listMap.get(uid0);
+    private void removeFromList(LongObjectMap<LongList> listMap, long uid0, long uid1) {
+        LongList l = listMap.get(uid0);
         if (l == null) return;
-        Iterator<Long> i = l.iterator();
-        while (i.hasNext()) {
-            long e = i.next();
-            if (e == uid1) {
-                i.remove();
-                break;
-            }
-        }
+        l.removeValue(uid1);
         if (l.size() == 0) {
             listMap.remove(uid0);
         }
     }
 
-    private void putIntoList(Map<Long, List<Long>> listMap, long uid0, long uid1) {
-        if (!listMap.containsKey(uid0)) {
-            listMap.put(uid0, new ArrayList<>());
+    private void putIntoList(LongObjectMap<LongList> listMap, long uid0, long uid1) {
+        LongList l = listMap.get(uid0);
+        if (l == null) {
+            l = new LongList();
+            listMap.put(uid0, l);
         }
-        listMap.get(uid0).add(0, uid1);
+        l.addFirst(uid1);
     }
 
-    private boolean isInList(Map<Long, List<Long>> listMap, long uid0, long uid1) {
-        List<Long> l = listMap.get(uid0);
+    private boolean isInList(LongObjectMap<LongList> listMap, long uid0, long uid1) {
+        LongList l = listMap.get(uid0);
         if (l == null) return false;
-        Iterator<Long> i = l.iterator();
-        while (i.hasNext()) {
-            long e = i.next();
-            if (e == uid1) {
-                return true;
-            }
-        }
-        return false;
+        return l.contains(uid1);
     }
 
     private void startTimeoutDeadlockChecker() {
@@ -203,15 +197,12 @@ public class LockTable {
         lock.lock();
         try {
             long currentTime = System.currentTimeMillis();
-            Iterator<Map.Entry<Long, Long>> iterator = waitStartTime.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<Long, Long> entry = iterator.next();
-                long xid = entry.getKey();
-                long startTime = entry.getValue();
+            for (long xid : waitStartTime.keys()) {
+                long startTime = waitStartTime.get(xid, currentTime);
                 if (currentTime - startTime >= timeout) {
                     // 超时，执行回滚操作
                     rollbackTimeoutTransaction(xid);
-                    iterator.remove();  // 从等待时间记录中移除
+                    waitStartTime.remove(xid);  // 从等待时间记录中移除
                 }
             }
         } finally {
@@ -223,15 +214,16 @@ public class LockTable {
         System.out.println("Transaction " + xid + " has timed out and will be rolled back.");
 
         // 解除事务等待的资源
-        Long uid = waitU.remove(xid);
-        if (uid != null) {
+        long uid = waitU.get(xid, NONE);
+        if (uid != NONE) {
+            waitU.remove(xid);
             removeFromList(wait, uid, xid);
         }
         // 释放所有已占用资源
-        List<Long> resources = x2u.remove(xid);
+        LongList resources = x2u.remove(xid);
         if (resources != null) {
-            for (Long resource : resources) {
-                selectNewXID(resource);
+            for (int i = 0; i < resources.size(); i++) {
+                selectNewXID(resources.get(i));
             }
         }
         // 通知等待该事务的其他线程
@@ -0,0 +1,344 @@
+package com.peng.minidb.backend.vm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.peng.minidb.backend.common.LongList;
+import com.peng.minidb.backend.common.LongObjectMap;
+import com.peng.minidb.common.Error;
+
+/**
+ * 可串行化快照隔离（SSI）的读写依赖表
+ *
+ * 只跟踪可串行化事务。事务 R 读到的内容不包含并发事务 W 的修改时，记为 R -rw-> W：
+ * 1. R 读到 W 插入且对 R 不可见的记录，或读到的记录被 W 删除而 R 看不到这次删除
+ * 2. R 读过某条记录（读锁）或某个索引范围（谓词锁），之后 W 删除了这条记录或在范围内插入了新的键
+ * 不可串行化的环中一定有危险结构 R -rw-> P -rw-> W，且 W 先于 P 和 R 提交（W 可以就是 R）
+ * 已准备提交的事务一定会提交，视为可能先于任何未提交的事务提交
+ * 新增的依赖构成危险结构时中止当前事务；准备提交时检查以自己为 P 或 R 的危险结构；
+ * 自己可能是最先提交的 W，而 P 或 R 已准备提交、无法中止时，中止自己
+ * 并发判断按序号：begin 在建快照之前取序号，提交在注销之后取序号，
+ * 两个事务各自在对方提交之前开始即为并发；已提交事务的读锁保留到没有与它并发的活跃事务为止
+ */
+public class RWConflictTable {
+
+    private static final long RUNNING = Long.MAX_VALUE;
+
+    private static class Sxact {
+        long xid;
+        long beginSeq;
+        long commitSeq = RUNNING;
+        boolean prepared;           // 已通过提交检查，不再中止
+        List<Sxact> ins = new ArrayList<>(2);      // 依赖指向自己的并发事务
+        List<Sxact> outs = new ArrayList<>(2);     // 自己依赖指向的并发事务
+        long outCommit = RUNNING;   // outs 中最早提交的序号，邻居被丢弃后仍保留
+        LongList reads = new LongList();
+        LongList rangeIndexes = new LongList();
+    }
+
+    private static class Range {
+        Sxact owner;
+        long left, right;
+    }
+
+    private LongObjectMap<Sxact> sxacts;            // 跟踪中的事务，包括保留的已提交事务
+    private LongObjectMap<List<Sxact>> readers;     // 记录 UID 的读锁
+    private LongObjectMap<List<Range>> ranges;      // 索引 UID 上的谓词锁
+    private ArrayDeque<Sxact> committed;            // 按提交顺序保留的已提交事务
+    private TreeMap<Long, Sxact> running;           // 运行中的事务，按 beginSeq 排序
+    private long seq;
+    private Lock lock;
+
+    public RWConflictTable() {
+        sxacts = new LongObjectMap<>();
+        readers = new LongObjectMap<>();
+        ranges = new LongObjectMap<>();
+        committed = new ArrayDeque<>();
+        running = new TreeMap<>();
+        lock = new ReentrantLock();
+    }
+
+    // 开始跟踪 xid，在建快照之前调用
+    public void begin(long xid) {
+        lock.lock();
+        try {
+            Sxact s = new Sxact();
+            s.xid = xid;
+            s.beginSeq = ++ seq;
+            sxacts.put(xid, s);
+            running.put(s.beginSeq, s);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * xid 读到了 uid 的版本 [xmin, xmax]
+     * 可见时登记读锁，删除者 xmax 对 xid 不可见，形成 xid -rw-> xmax；不可见时插入者 xmin 形成 xid -rw-> xmin
+     * 未跟踪的事务（已中止、非可串行化、已丢弃的已提交事务）不会形成依赖
+     */
+    public void read(long xid, long uid, boolean visible, long xmin, long xmax) throws Exception {
+        lock.lock();
+        try {
+            Sxact s = sxacts.get(xid);
+            if(s == null) {
+                return;
+            }
+            Sxact writer;
+            if(visible) {
+                List<Sxact> list = readers.get(uid);
+                if(list == null) {
+                    list = new ArrayList<>(2);
+                    readers.put(uid, list);
+                }
+                if(!list.contains(s)) {
+                    list.add(s);
+                    s.reads.add(uid);
+                }
+                writer = xmax == 0 ? null : sxacts.get(xmax);
+            } else {
+                writer = sxacts.get(xmin);
+            }
+            if(writer != null) {
+                addEdge(s, writer);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // xid 按索引范围 [left, right] 查找，之后并发事务在范围内插入时形成 xid -rw-> 插入者
+    public void readRange(long xid, long indexUid, long left, long right) {
+        lock.lock();
+        try {
+            Sxact s = sxacts.get(xid);
+            if(s == null) {
+                return;
+            }
+            List<Range> list = ranges.get(indexUid);
+            if(list == null) {
+                list = new ArrayList<>();
+                ranges.put(indexUid, list);
+            }
+            Range r = new Range();
+            r.owner = s;
+            r.left = left;
+            r.right = right;
+            list.add(r);
+            s.rangeIndexes.add(indexUid);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // xid 删除了 uid，读过它的并发事务形成 读者 -rw-> xid
+    public void write(long xid, long uid) throws Exception {
+        lock.lock();
+        try {
+            Sxact s = sxacts.get(xid);
+            List<Sxact> list = readers.get(uid);
+            if(s == null || list == null) {
+                return;
+            }
+            for (Sxact reader : list) {
+                addEdge(reader, s);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // xid 向索引插入了 key，谓词锁覆盖 key 的并发事务形成 读者 -rw-> xid
+    public void insertKey(long xid, long indexUid, long key) throws Exception {
+        lock.lock();
+        try {
+            Sxact s = sxacts.get(xid);
+            List<Range> list = ranges.get(indexUid);
+            if(s == null || list == null) {
+                return;
+            }
+            for (Range r : list) {
+                if(r.left <= key && key <= r.right) {
+                    addEdge(r.owner, s);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 提交前检查，通过后事务不再中止
+    public void prepare(long xid) throws Exception {
+        lock.lock();
+        try {
+            Sxact s = sxacts.get(xid);
+            if(s == null) {
+                return;
+            }
+            for (Sxact r : s.ins) {
+                if(dangerous(s, r)) {
+                    throw Error.SerializationFailureException;
+                }
+            }
+            for (Sxact p : s.outs) {
+                if(dangerous(p, s)) {
+                    throw Error.SerializationFailureException;
+                }
+            }
+            // 自己提交后 r -rw-> p -rw-> s 成为危险结构，要由 p 或 r 在准备提交时中止
+            for (Sxact p : s.ins) {
+                if(p.commitSeq != RUNNING) {
+                    continue;
+                }
+                for (Sxact r : p.ins) {
+                    if(r.commitSeq == RUNNING && (p.prepared || (r != s && r.prepared))) {
+                        throw Error.SerializationFailureException;
+                    }
+                }
+            }
+            s.prepared = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 事务已提交并注销，读锁保留到没有与它并发的活跃事务为止
+    public void commit(long xid) {
+        lock.lock();
+        try {
+            Sxact s = sxacts.get(xid);
+            if(s == null) {
+                return;
+            }
+            running.remove(s.beginSeq);
+            s.commitSeq = ++ seq;
+            for (Sxact p : s.ins) {
+                p.outCommit = Math.min(p.outCommit, s.commitSeq);
+            }
+            committed.addLast(s);
+            cleanup();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 中止的事务不会产生依赖，直接丢弃
+    public void abort(long xid) {
+        lock.lock();
+        try {
+            Sxact s = sxacts.get(xid);
+            if(s == null) {
+                return;
+            }
+            running.remove(s.beginSeq);
+            drop(s);
+            cleanup();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // reader -rw-> writer，执行当前操作的总是其中之一，构成危险结构时中止的就是它
+    private void addEdge(Sxact reader, Sxact writer) throws Exception {
+        if(reader == writer || !concurrent(reader, writer) || reader.outs.contains(writer)) {
+            return;
+        }
+        // 以 reader 为 P、writer 为 W 的结构，或以 writer 为 P、reader 为 R 的结构，中止时不留下依赖
+        boolean abort = dangerous(writer, reader);
+        if(!abort && first(writer, reader)) {
+            for (Sxact r : reader.ins) {
+                if(r == writer || first(writer, r)) {
+                    abort = true;
+                    break;
+                }
+            }
+        }
+        if(abort) {
+            throw Error.SerializationFailureException;
+        }
+        reader.outs.add(writer);
+        writer.ins.add(reader);
+        if(writer.commitSeq != RUNNING) {
+            reader.outCommit = Math.min(reader.outCommit, writer.commitSeq);
+        }
+    }
+
+    // reader -rw-> pivot -rw-> W，pivot 的某个 W 可能先于 pivot 和 reader 提交
+    private boolean dangerous(Sxact pivot, Sxact reader) {
+        // 已提交的 W 只比较最早的提交序号，W 就是 reader 时两者相等
+        if(pivot.outCommit < pivot.commitSeq && pivot.outCommit <= reader.commitSeq) {
+            return true;
+        }
+        for (Sxact w : pivot.outs) {
+            if(first(w, pivot) && (w == reader || first(w, reader))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // w 已提交且 x 未提交或提交得更晚，或 w 已准备提交而 x 未提交
+    private boolean first(Sxact w, Sxact x) {
+        if(w.commitSeq != RUNNING) {
+            return w.commitSeq < x.commitSeq;
+        }
+        return w.prepared && x.commitSeq == RUNNING;
+    }
+
+    private boolean concurrent(Sxact a, Sxact b) {
+        return a.beginSeq < b.commitSeq && b.beginSeq < a.commitSeq;
+    }
+
+    // 跟踪中的事务数和其中保留的已提交事务数
+    public void status(Map<String, Object> out) {
+        lock.lock();
+        try {
+            out.put("ssi.tracked", sxacts.size());
+            out.put("ssi.retained", committed.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 丢弃不再与任何活跃事务并发的已提交事务
+    private void cleanup() {
+        long minBegin = running.isEmpty() ? RUNNING : running.firstKey();
+        while(!committed.isEmpty() && committed.peekFirst().commitSeq < minBegin) {
+            drop(committed.pollFirst());
+        }
+    }
+
+    private void drop(Sxact s) {
+        sxacts.remove(s.xid);
+        for (Sxact r : s.ins) {
+            r.outs.remove(s);
+        }
+        for (Sxact w : s.outs) {
+            w.ins.remove(s);
+        }
+        for (int i = 0; i < s.reads.size(); i ++) {
+            long uid = s.reads.get(i);
+            List<Sxact> list = readers.get(uid);
+            list.remove(s);
+            if(list.isEmpty()) {
+                readers.remove(uid);
+            }
+        }
+        for (int i = 0; i < s.rangeIndexes.size(); i ++) {
+            long indexUid = s.rangeIndexes.get(i);
+            List<Range> list = ranges.get(indexUid);
+            if(list == null) {
+                continue;
+            }
+            list.removeIf(r -> r.owner == s);
+            if(list.isEmpty()) {
+                ranges.remove(indexUid);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.peng.minidb.backend.vm;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NavigableMap;
+
+import com.peng.minidb.backend.tm.TransactionManagerImpl;
+
+/**
+ * 可重复读和可串行化事务开始时的快照
+ * xids 为开始时仍在进行的其他事务，升序排列，xmin 为其中最小的，没有时等于 xmax
+ * xmax 为事务自身的 xid，之后开始的事务都不小于它
+ * 判断时先按 [xmin, xmax) 区间排除，落在区间内再二分查找，不装箱
+ */
+public class Snapshot {
+
+    private static final long[] EMPTY = new long[0];
+
+    public final long xmin;
+    public final long xmax;
+    private final long[] xids;
+
+    private Snapshot(long xmin, long xmax, long[] xids) {
+        this.xmin = xmin;
+        this.xmax = xmax;
+        this.xids = xids;
+    }
+
+    /**
+     * 由按 xid 有序的活跃事务表创建 xid 的快照，调用者需保证期间没有新事务注册
+     */
+    static Snapshot build(long xid, NavigableMap<Long, Transaction> active) {
+        // 跳表的 size 需要遍历，先数一遍再复制，数组只分配一次
+        NavigableMap<Long, Transaction> others = active.subMap(TransactionManagerImpl.SUPER_XID, false, xid, false);
+        int size = 0;
+        for (Iterator<Long> it = others.keySet().iterator(); it.hasNext(); it.next()) {
+            size ++;
+        }
+        long[] xids = size == 0 ? EMPTY : new long[size];
+        int i = 0;
+        for (long x : others.keySet()) {
+            if(i < size) {
+                xids[i ++] = x;
+            }
+        }
+        // 两遍之间结束并注销的事务状态已写入，不在快照中也没有关系
+        if(i < size) {
+            xids = Arrays.copyOf(xids, i);
+        }
+        return new Snapshot(i == 0 ? xid : xids[0], xid, xids);
+    }
+
+    public boolean contains(long xid) {
+        if(xid < xmin || xid >= xmax) {
+            return false;
+        }
+        return Arrays.binarySearch(xids, xid) >= 0;
+    }
+}
@@ -1,7 +1,6 @@
 package com.peng.minidb.backend.vm;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.NavigableMap;
 
 import com.peng.minidb.backend.tm.TransactionManagerImpl;
 
@@ -9,21 +8,21 @@ import com.peng.minidb.backend.tm.TransactionManagerImpl;
 public class Transaction {
     public long xid;
     public IsolationLevel isolationLevel;
-    public Map<Long, Boolean> snapshot;
+    public Snapshot snapshot;
+    public long xmin;               // 开始时最早的活跃事务，冻结不能越过它
     public Exception err;
     public boolean autoAborted;
     public long startTime; // 添加开始时间属性
 
-    public static Transaction newTransaction(long xid, IsolationLevel isolationLevel, Map<Long, Transaction> active) {
+    public static Transaction newTransaction(long xid, IsolationLevel isolationLevel, NavigableMap<Long, Transaction> active) {
         Transaction t = new Transaction();
         t.xid = xid;
         t.isolationLevel = isolationLevel;
         t.startTime = System.currentTimeMillis();
+        t.xmin = xid;
         if(isolationLevel != IsolationLevel.READ_COMMITTED && isolationLevel != IsolationLevel.READ_UNCOMMITTED) {
-            t.snapshot = new HashMap<>();
-            for(Long x : active.keySet()) {
-                t.snapshot.put(x, true);
-            }
+            t.snapshot = Snapshot.build(xid, active);
+            t.xmin = t.snapshot.xmin;
         }
         return t;
     }
@@ -32,6 +31,6 @@ public class Transaction {
         if(xid == TransactionManagerImpl.SUPER_XID) {
             return false;
         }
-        return snapshot.containsKey(xid);
+        return snapshot.contains(xid);
     }
 }
@@ -1,5 +1,8 @@
 package com.peng.minidb.backend.vm;
 
+import java.util.List;
+import java.util.Map;
+
 import com.peng.minidb.backend.dm.DataManager;
 import com.peng.minidb.backend.tm.TransactionManager;
 
@@ -8,6 +11,11 @@ public interface VersionManager {
     long insert(long xid, byte[] data) throws Exception;
     boolean delete(long xid, long uid) throws Exception;
 
+    // 可串行化事务按索引范围 [left, right] 查找前调用，登记谓词锁
+    void readRange(long xid, long indexUid, long left, long right);
+    // 可串行化事务向索引插入 key 时调用，与读过该范围的并发事务形成读写依赖
+    void insertKey(long xid, long indexUid, long key) throws Exception;
+
     long begin(IsolationLevel isolationLevel);
     void commit(long xid) throws Exception;
     void abort(long xid);
@@ -17,4 +25,19 @@ public interface VersionManager {
     }
     void physicalDelete(long xid, Long uid) throws Exception;
 
+    // 把记录版本缓存的运行统计写入 out
+    void status(Map<String, Object> out);
+
+    // 冻结的界限：早于它的事务都已结束，也不在任何活跃事务的快照中；调用者需处于一个活跃事务中
+    long freezeHorizon();
+    // 冻结 uids 中早于 horizon 的事务留下的 XMIN / XMAX，落盘后截断事务状态；uids 需包含所有记录
+    void freeze(List<Long> uids, long horizon) throws Exception;
+    // 事务状态文件中保留的状态个数
+    long statusCount();
+
+    // uid 的版本对所有事务都不可见时返回其内容，否则返回 null；horizon 为 freezeHorizon 的结果
+    byte[] readDead(long uid, long horizon) throws Exception;
+    // 已删除的版本数，包括之后被中止的删除
+    long deleteCount();
+
 }
@@ -4,7 +4,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -20,27 +22,31 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
 
     TransactionManager tm;
     DataManager dm;
-    Map<Long, Transaction> activeTransaction;
+    // 活跃事务表，按 xid 有序，建快照时按顺序复制；查询不加锁
+    // lock 只用于让分配 xid、建快照与注册成为原子操作，事务结束时先写状态再注销
+    ConcurrentNavigableMap<Long, Transaction> activeTransaction;
     Lock lock;
     LockTable lt;
-    private final Lock globalLock = new ReentrantLock();
-
+    // 可串行化事务之间的读写依赖
+    RWConflictTable rw;
+    // 已删除的版本数，后台回收据此决定是否扫描
+    AtomicLong deleted;
 
     public VersionManagerImpl(TransactionManager tm, DataManager dm) {
         super(0);
         this.tm = tm;
         this.dm = dm;
-        this.activeTransaction = new ConcurrentHashMap<>();
+        this.activeTransaction = new ConcurrentSkipListMap<>();
         activeTransaction.put(TransactionManagerImpl.SUPER_XID, Transaction.newTransaction(TransactionManagerImpl.SUPER_XID, IsolationLevel.READ_COMMITTED, null));
         this.lock = new ReentrantLock();
         this.lt = new LockTable();
+        this.rw = new RWConflictTable();
+        this.deleted = new AtomicLong();
     }
 
     @Override
     public byte[] read(long xid, long uid) throws Exception {
-        lock.lock();
         Transaction t = activeTransaction.get(xid);
-        lock.unlock();
 
         if (t.err != null) {
             throw t.err;
@@ -57,7 +63,11 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
             }
         }
         try {
-            if (Visibility.isVisible(tm, t, entry)) {
+            boolean visible = Visibility.isVisible(tm, t, entry);
+            if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+                checkRead(t, entry, visible);
+            }
+            if (visible) {
                 return entry.data();
             } else {
                 return null;
@@ -67,11 +77,46 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         }
     }
 
+    // 可串行化事务读到一个版本，登记读锁并检查读写依赖，构成危险结构时中止当前事务
+    private void checkRead(Transaction t, Entry entry, boolean visible) throws Exception {
+        try {
+            rw.read(t.xid, entry.getUid(), visible, entry.getXmin(), entry.getXmax());
+        } catch (Exception e) {
+            throw autoAbort(t, e);
+        }
+    }
+
+    private Exception autoAbort(Transaction t, Exception e) {
+        t.err = e;
+        internAbort(t.xid, true);
+        t.autoAborted = true;
+        return t.err;
+    }
+
+    @Override
+    public void readRange(long xid, long indexUid, long left, long right) {
+        Transaction t = activeTransaction.get(xid);
+        if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+            rw.readRange(xid, indexUid, left, right);
+        }
+    }
+
+    @Override
+    public void insertKey(long xid, long indexUid, long key) throws Exception {
+        Transaction t = activeTransaction.get(xid);
+        if (t.isolationLevel != IsolationLevel.SERIALIZABLE) {
+            return;
+        }
+        try {
+            rw.insertKey(xid, indexUid, key);
+        } catch (Exception e) {
+            throw autoAbort(t, e);
+        }
+    }
+
     @Override
     public long insert(long xid, byte[] data) throws Exception {
-        lock.lock();
         Transaction t = activeTransaction.get(xid);
-        lock.unlock();
 
         if (t.err != null) {
             throw t.err;
@@ -83,23 +128,94 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
 
     @Override
     public void physicalDelete(long xid, Long uid) throws Exception {
-        lock.lock();
         Transaction t = activeTransaction.get(xid);
-        lock.unlock();
 
         if (t.err != null) {
             throw t.err;
         }
         dm.physicalDelete(uid);
+    }
 
-        super.release(uid);
+    @Override
+    public void status(Map<String, Object> out) {
+        out.put("entry_cache.resident", getResidentCount());
+        out.put("entry_cache.pinned", getPinnedCount());
+        getStats().report("entry_cache", out);
+        rw.status(out);
     }
 
     @Override
-    public boolean delete(long xid, long uid) throws Exception {
+    public long freezeHorizon() {
         lock.lock();
+        try {
+            long horizon = Long.MAX_VALUE;
+            for (Transaction t : activeTransaction.values()) {
+                if (t.xid != TransactionManagerImpl.SUPER_XID) {
+                    horizon = Math.min(horizon, t.xmin);
+                }
+            }
+            return horizon;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void freeze(List<Long> uids, long horizon) throws Exception {
+        for (long uid : uids) {
+            Entry entry = null;
+            try {
+                entry = super.get(uid);
+            } catch (Exception e) {
+                if (e == Error.NullEntryException) {
+                    continue;
+                } else {
+                    throw e;
+                }
+            }
+            try {
+                entry.freeze(tm, horizon);
+            } finally {
+                entry.release();
+            }
+        }
+        // 冻结的修改先随检查点落盘，崩溃后不会再引用被截断的状态
+        dm.checkpoint();
+        tm.truncate(horizon);
+    }
+
+    @Override
+    public long statusCount() {
+        return tm.statusCount();
+    }
+
+    @Override
+    public byte[] readDead(long uid, long horizon) throws Exception {
+        Entry entry = null;
+        try {
+            entry = super.get(uid);
+        } catch (Exception e) {
+            if (e == Error.NullEntryException) {
+                return null;
+            } else {
+                throw e;
+            }
+        }
+        try {
+            return entry.isDead(tm, horizon) ? entry.data() : null;
+        } finally {
+            entry.release();
+        }
+    }
+
+    @Override
+    public long deleteCount() {
+        return deleted.get();
+    }
+
+    @Override
+    public boolean delete(long xid, long uid) throws Exception {
         Transaction t = activeTransaction.get(xid);
-        lock.unlock();
 
         if (t.err != null) {
             throw t.err;
@@ -115,17 +231,18 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
             }
         }
         try {
-            if (!Visibility.isVisible(tm, t, entry)) {
+            boolean visible = Visibility.isVisible(tm, t, entry);
+            if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+                checkRead(t, entry, visible);
+            }
+            if (!visible) {
                 return false;
             }
             Lock l = null;
             try {
                 l = lt.add(xid, uid);
             } catch (Exception e) {
-                t.err = Error.ConcurrentUpdateException;
-                internAbort(xid, true);
-                t.autoAborted = true;
-                throw t.err;
+                throw autoAbort(t, Error.ConcurrentUpdateException);
             }
             if (l != null) {
                 l.lock();
@@ -137,13 +254,18 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
             }
 
             if (Visibility.isVersionSkip(tm, t, entry)) {
-                t.err = Error.ConcurrentUpdateException;
-                internAbort(xid, true);
-                t.autoAborted = true;
-                throw t.err;
+                throw autoAbort(t, Error.ConcurrentUpdateException);
             }
 
             entry.setXmax(xid);
+            deleted.incrementAndGet();
+            if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+                try {
+                    rw.write(xid, uid);
+                } catch (Exception e) {
+                    throw autoAbort(t, e);
+                }
+            }
             return true;
 
         } finally {
@@ -153,13 +275,13 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
 
     @Override
     public long begin(IsolationLevel isolationLevel) {
-        globalLock.lock(); // 获取全局锁
         lock.lock();
         try {
-            if (isolationLevel != IsolationLevel.SERIALIZABLE) {
-                globalLock.unlock(); // 解除非全局锁
-            }
             long xid = tm.begin();
+            if (isolationLevel == IsolationLevel.SERIALIZABLE) {
+                // 在建快照之前登记，与之并发的判断偏保守
+                rw.begin(xid);
+            }
             Transaction t = Transaction.newTransaction(
                     xid, isolationLevel == null ? IsolationLevel.READ_COMMITTED : isolationLevel, activeTransaction);
             activeTransaction.put(xid, t);
@@ -172,9 +294,7 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
 
     @Override
     public void commit(long xid) throws Exception {
-        lock.lock();
         Transaction t = activeTransaction.get(xid);
-        lock.unlock();
 
         try {
             if (t.err != null) {
@@ -186,15 +306,23 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
             Panic.panic(n);
         }
 
-        lock.lock();
-        activeTransaction.remove(xid);
-        lock.unlock();
+        if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+            try {
+                rw.prepare(xid);
+            } catch (Exception e) {
+                throw autoAbort(t, e);
+            }
+        }
 
-        lt.remove(xid);
-        tm.commit(xid);
+        // 组提交：提交日志与并发提交的事务共用一次 fsync
+        dm.logCommit(xid);
 
-        if (t.isolationLevel == IsolationLevel.SERIALIZABLE && globalLock.tryLock()) {
-            globalLock.unlock();  // 释放全局锁
+        // 先标记为已提交再注销：之后创建的快照不含它时，它一定已提交；等待锁的事务也能看到提交
+        tm.commit(xid);
+        activeTransaction.remove(xid);
+        lt.remove(xid);
+        if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+            rw.commit(xid);
         }
     }
 
@@ -204,22 +332,21 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
     }
 
     private void internAbort(long xid, boolean autoAborted) {
-        lock.lock();
         Transaction t = activeTransaction.get(xid);
-        if (!autoAborted) {
-            activeTransaction.remove(xid);
-        }
-        lock.unlock();
 
         if (t.autoAborted){
-            if (t.isolationLevel == IsolationLevel.SERIALIZABLE) globalLock.unlock();  // 释放全局锁
+            if (!autoAborted) {
+                activeTransaction.remove(xid);
+            }
             return;
         }
-        lt.remove(xid);
+        // 与提交一样先写状态再注销，冻结不会越过尚未写入状态的事务
         tm.abort(xid);
-
-        if (t.isolationLevel == IsolationLevel.SERIALIZABLE) globalLock.unlock();  // 释放全局锁
-
+        if (!autoAborted) {
+            activeTransaction.remove(xid);
+        }
+        lt.remove(xid);
+        rw.abort(xid);
     }
 
     public void releaseEntry(Entry entry) {
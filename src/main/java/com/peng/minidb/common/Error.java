@@ -20,6 +20,7 @@ public class Error {
     public static final Exception DeadlockException = new RuntimeException("Deadlock detected: Two or more transactions are waiting indefinitely for resources held by each other.");
     public static final Exception TimeoutException = new RuntimeException("Transaction timeout: Lock wait exceeded the maximum allowed time; consider retrying the operation.");
     public static final Exception ConcurrentUpdateException = new RuntimeException("Concurrent modification error: Data has been modified by another transaction.");
+    public static final Exception SerializationFailureException = new RuntimeException("Serialization failure: The transaction conflicts with concurrent serializable transactions; retry it.");
     public static final Exception NullEntryException = new RuntimeException("Null value error: Attempted operation on a null entry.");
 
     // TBM
@@ -0,0 +1,207 @@
+package com.peng.minidb.backend.common;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AbstractCacheTest {
+
+    // 资源内容为 key 和加载次数；写回 key 为 BLOCKED 的资源时阻塞，直到测试放行
+    static class BlockingCache extends AbstractCache<long[]> {
+        static final long BLOCKED = 1;
+        final AtomicInteger loads = new AtomicInteger();
+        final List<Long> released = new CopyOnWriteArrayList<>();
+        final CountDownLatch releasing = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+
+        BlockingCache(int maxResource) {
+            super(maxResource);
+        }
+
+        BlockingCache(int maxResource, ReplacementPolicy policy) {
+            super(maxResource, policy);
+        }
+
+        @Override
+        protected long[] getForCache(long key) {
+            return new long[] {key, loads.incrementAndGet()};
+        }
+
+        @Override
+        protected void releaseForCache(long[] obj) {
+            if(obj[0] == BLOCKED) {
+                releasing.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            released.add(obj[0]);
+        }
+    }
+
+    ExecutorService pool;
+
+    // 与 AbstractCache.segmentFor 相同的分段方式，找出与 BLOCKED 同一段的 key
+    static long[] sameSegment(int n) {
+        long[] keys = new long[n];
+        int seg = segment(BlockingCache.BLOCKED);
+        for(long k = 2, i = 0; i < n; k ++) {
+            if(segment(k) == seg) {
+                keys[(int) i ++] = k;
+            }
+        }
+        return keys;
+    }
+
+    static int segment(long key) {
+        return ((int)(key ^ (key >>> 32)) * 0x9E3779B9) >>> 28;
+    }
+
+    @BeforeEach
+    public void setUp() {
+        pool = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testWriteBackDoesNotBlockOtherKeys() throws Exception {
+        BlockingCache cache = new BlockingCache(0);
+        for(long k = 2; k <= 64; k ++) {
+            cache.get(k);
+        }
+        cache.get(BlockingCache.BLOCKED);
+        // 没有容量上限，引用计数归零即写回
+        Future<?> release = pool.submit(() -> cache.release(BlockingCache.BLOCKED));
+        assertEquals(true, cache.releasing.await(5, TimeUnit.SECONDS));
+
+        // 写回期间，所有段中的资源仍可命中，新资源仍可加载
+        Future<?> others = pool.submit(() -> {
+            for(long k = 2; k <= 128; k ++) {
+                cache.get(k);
+            }
+            return null;
+        });
+        others.get(5, TimeUnit.SECONDS);
+
+        // 正在移出的资源要等写回完成后重新加载
+        Future<long[]> reload = pool.submit(() -> cache.get(BlockingCache.BLOCKED));
+        assertThrows(TimeoutException.class, () -> reload.get(200, TimeUnit.MILLISECONDS));
+        cache.proceed.countDown();
+        release.get(5, TimeUnit.SECONDS);
+        long[] obj = reload.get(5, TimeUnit.SECONDS);
+        assertEquals(BlockingCache.BLOCKED, obj[0]);
+        assertEquals(true, cache.released.contains(BlockingCache.BLOCKED));
+    }
+
+    @Test
+    public void testEvictionWritesBackOutsideSegmentLock() throws Exception {
+        BlockingCache cache = new BlockingCache(8);
+        long[] keys = sameSegment(8);
+        cache.get(BlockingCache.BLOCKED);
+        cache.release(BlockingCache.BLOCKED);
+        for(int i = 0; i < 7; i ++) {
+            cache.get(keys[i]);
+        }
+        // 缓存已满，加载新资源时驱逐唯一未被引用的 BLOCKED
+        Future<long[]> loader = pool.submit(() -> cache.get(keys[7]));
+        assertEquals(true, cache.releasing.await(5, TimeUnit.SECONDS));
+        // 同一段的其他资源在写回期间仍可命中
+        for(int i = 0; i < 7; i ++) {
+            long key = keys[i];
+            long[] obj = pool.submit(() -> cache.get(key)).get(5, TimeUnit.SECONDS);
+            assertEquals(key, obj[0]);
+        }
+        cache.proceed.countDown();
+        assertEquals(keys[7], loader.get(5, TimeUnit.SECONDS)[0]);
+        assertEquals(1, cache.released.size());
+    }
+
+    @Test
+    public void testForEachCachedWaitsForWriteBack() throws Exception {
+        BlockingCache cache = new BlockingCache(0);
+        cache.get(BlockingCache.BLOCKED);
+        cache.get(2);
+        Future<?> release = pool.submit(() -> cache.release(BlockingCache.BLOCKED));
+        assertEquals(true, cache.releasing.await(5, TimeUnit.SECONDS));
+
+        List<Long> seen = new CopyOnWriteArrayList<>();
+        Future<?> scan = pool.submit(() -> cache.forEachCached(obj -> seen.add(obj[0])));
+        assertThrows(TimeoutException.class, () -> scan.get(200, TimeUnit.MILLISECONDS));
+        cache.proceed.countDown();
+        scan.get(5, TimeUnit.SECONDS);
+        release.get(5, TimeUnit.SECONDS);
+        assertEquals(1, seen.size());
+        assertEquals(2L, (long) seen.get(0));
+        // 遍历时的引用已释放，只剩测试自己的引用
+        assertEquals(1, cache.getPinnedCount());
+    }
+
+    // 加载并立即释放，只留下一次访问记录
+    static void touch(BlockingCache cache, long key) throws Exception {
+        cache.get(key);
+        cache.release(key);
+    }
+
+    @Test
+    public void testClockSparesReferencedKey() throws Exception {
+        BlockingCache cache = new BlockingCache(3, ReplacementPolicy.clock(3));
+        touch(cache, 2);
+        touch(cache, 3);
+        touch(cache, 4);
+        // 第一次驱逐清掉所有访问位，驱逐指针处的 2
+        touch(cache, 5);
+        assertEquals(Arrays.asList(2L), cache.released);
+
+        // 3 比 4 更早加载，但被再次访问，指针扫过时只清访问位，驱逐的是 4
+        touch(cache, 3);
+        touch(cache, 6);
+        assertEquals(Arrays.asList(2L, 4L), cache.released);
+        // 再次访问 3 是命中，共加载 2、3、4、5、6 五次
+        assertEquals(5, cache.loads.get());
+    }
+
+    @Test
+    public void testClockNoVictimWhenAllReferenced() {
+        ReplacementPolicy clock = ReplacementPolicy.clock(3);
+        clock.admit(2);
+        clock.admit(3);
+        clock.admit(4);
+        assertEquals(ReplacementPolicy.NO_VICTIM, clock.victim(k -> false));
+        assertEquals(3, clock.victim(k -> k == 3));
+    }
+
+    @Test
+    public void testLRUKEvictsByKthLastAccess() throws Exception {
+        BlockingCache cache = new BlockingCache(3, ReplacementPolicy.lruK(2));
+        touch(cache, 2);    // t1
+        touch(cache, 3);    // t2
+        touch(cache, 3);    // t3
+        touch(cache, 4);    // t4
+        touch(cache, 2);    // t5
+        touch(cache, 4);    // t6
+        // 最近一次访问最早的是 3（t3），按 LRU 应驱逐 3；
+        // 倒数第2次访问最早的是 2（t1），LRU-2 驱逐 2
+        touch(cache, 5);
+        assertEquals(Arrays.asList(2L), cache.released);
+    }
+}
@@ -0,0 +1,209 @@
+package com.peng.minidb.backend.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LongMapsTest {
+
+    // 找出 n 个在容量为 capacity 的表中落在同一槽位 home 的 key
+    private static long[] colliding(int capacity, int home, int n) {
+        long[] res = new long[n];
+        int j = 0;
+        for (long k = 1; j < n; k ++) {
+            if((LongHashing.hash(k) & (capacity - 1)) == home) {
+                res[j ++] = k;
+            }
+        }
+        return res;
+    }
+
+    @Test
+    public void testObjectMapRemoveShiftsChain() {
+        // 容量 16 最多放 8 个元素，7 个 key 同槽位时不会扩容
+        LongObjectMap<String> map = new LongObjectMap<>(8);
+        long[] ks = colliding(16, 3, 7);
+        for (long k : ks) {
+            map.put(k, "v" + k);
+        }
+        // 删掉链头和链中间，后面的元素必须仍能找到
+        assertEquals("v" + ks[0], map.remove(ks[0]));
+        assertEquals("v" + ks[3], map.remove(ks[3]));
+        assertNull(map.remove(ks[3]));
+        for (int i = 0; i < ks.length; i ++) {
+            if(i == 0 || i == 3) {
+                assertNull(map.get(ks[i]));
+                assertFalse(map.containsKey(ks[i]));
+            } else {
+                assertEquals("v" + ks[i], map.get(ks[i]));
+            }
+        }
+        assertEquals(5, map.size());
+    }
+
+    @Test
+    public void testObjectMapRemoveWrapsAround() {
+        // 链从表尾绕回表头，前移时要按环形区间判断
+        LongObjectMap<Long> map = new LongObjectMap<>(8);
+        long[] tail = colliding(16, 14, 4);
+        long[] head = colliding(16, 0, 2);
+        for (long k : tail) map.put(k, k);
+        for (long k : head) map.put(k, k);
+        map.remove(tail[1]);
+        map.remove(head[0]);
+        for (long k : new long[]{tail[0], tail[2], tail[3], head[1]}) {
+            assertEquals(Long.valueOf(k), map.get(k));
+        }
+        assertNull(map.get(tail[1]));
+        assertNull(map.get(head[0]));
+        assertEquals(4, map.size());
+    }
+
+    @Test
+    public void testObjectMapZeroKey() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        assertNull(map.put(0, "a"));
+        assertEquals("a", map.put(0, "b"));
+        assertTrue(map.containsKey(0));
+        assertEquals(1, map.size());
+        assertEquals(0, map.keys()[0]);
+        assertEquals("b", map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testObjectMapRandomAgainstHashMap() {
+        Random r = new Random(42);
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        Map<Long, Long> ref = new HashMap<>();
+        for (int round = 0; round < 200000; round ++) {
+            // key 范围小，保证大量命中、冲突和删除后再插入
+            long k = r.nextInt(4096) - 2048;
+            int op = r.nextInt(3);
+            if(op == 0) {
+                long v = r.nextLong();
+                assertEquals(ref.put(k, v), map.put(k, v));
+            } else if(op == 1) {
+                assertEquals(ref.remove(k), map.remove(k));
+            } else {
+                assertEquals(ref.get(k), map.get(k));
+            }
+        }
+        assertEquals(ref.size(), map.size());
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        List<Long> expected = new ArrayList<>(ref.keySet());
+        expected.sort(null);
+        assertEquals(expected.size(), keys.length);
+        for (int i = 0; i < keys.length; i ++) {
+            assertEquals(expected.get(i).longValue(), keys[i]);
+        }
+        Map<Long, Long> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertEquals(ref, visited);
+    }
+
+    @Test
+    public void testObjectMapResizeKeepsEntries() {
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        for (long k = -5000; k <= 5000; k ++) {
+            map.put(k * 4096, k);
+        }
+        assertEquals(10001, map.size());
+        // 扩容后删除一半，再插回，剩余元素都应可见
+        for (long k = -5000; k <= 5000; k += 2) {
+            assertEquals(Long.valueOf(k), map.remove(k * 4096));
+        }
+        for (long k = -5000; k <= 5000; k ++) {
+            if((k & 1) == 0) {
+                assertNull(map.get(k * 4096));
+                map.put(k * 4096, -k);
+            } else {
+                assertEquals(Long.valueOf(k), map.get(k * 4096));
+            }
+        }
+        for (long k = -5000; k <= 5000; k += 2) {
+            assertEquals(Long.valueOf(-k), map.get(k * 4096));
+        }
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(4096));
+    }
+
+    @Test
+    public void testLongLongMapRandomAgainstHashMap() {
+        Random r = new Random(7);
+        LongLongMap map = new LongLongMap();
+        Map<Long, Long> ref = new HashMap<>();
+        for (int round = 0; round < 200000; round ++) {
+            long k = r.nextInt(4096) - 2048;
+            int op = r.nextInt(3);
+            if(op == 0) {
+                long v = r.nextLong();
+                ref.put(k, v);
+                map.put(k, v);
+            } else if(op == 1) {
+                assertEquals(ref.remove(k) != null, map.remove(k));
+            } else {
+                assertEquals(ref.containsKey(k), map.containsKey(k));
+                assertEquals(ref.getOrDefault(k, -1L).longValue(), map.get(k, -1));
+            }
+        }
+        assertEquals(ref.size(), map.size());
+        Set<Long> keys = new HashSet<>();
+        for (long k : map.keys()) {
+            keys.add(k);
+        }
+        assertEquals(ref.keySet(), keys);
+    }
+
+    @Test
+    public void testLongLongMapRemoveShiftsChain() {
+        LongLongMap map = new LongLongMap(8);
+        long[] ks = colliding(16, 9, 6);
+        for (long k : ks) {
+            map.put(k, k + 1);
+        }
+        assertTrue(map.remove(ks[1]));
+        assertFalse(map.remove(ks[1]));
+        for (int i = 0; i < ks.length; i ++) {
+            assertEquals(i == 1 ? -1 : ks[i] + 1, map.get(ks[i], -1));
+        }
+        // 空出的槽位可以复用
+        map.put(ks[1], 0);
+        assertEquals(0, map.get(ks[1], -1));
+        assertEquals(6, map.size());
+    }
+
+    @Test
+    public void testLongHashSetAddAndResize() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        for (long k = 1; k <= 10000; k ++) {
+            assertTrue(set.add(k << 12));
+            assertTrue(set.add(-k));
+        }
+        assertFalse(set.add(4096));
+        assertEquals(20001, set.size());
+        for (long k = 1; k <= 10000; k ++) {
+            assertTrue(set.contains(k << 12));
+            assertTrue(set.contains(-k));
+            assertFalse(set.contains((k << 12) + 1));
+        }
+        assertTrue(set.contains(0));
+    }
+}
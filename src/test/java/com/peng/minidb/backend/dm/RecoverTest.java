@@ -0,0 +1,254 @@
+package com.peng.minidb.backend.dm;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.peng.minidb.backend.common.SubArray;
+import com.peng.minidb.backend.dm.dataItem.DataItem;
+import com.peng.minidb.backend.dm.logger.Logger;
+import com.peng.minidb.backend.dm.pageCache.PageCache;
+import com.peng.minidb.backend.tm.TransactionManager;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RecoverTest {
+    static final long MEM = 1 << 20;
+
+    File dir;
+    String path;
+    TransactionManager tm;
+    DataManagerImpl dm;             // 崩溃前的实例，不关闭
+    TransactionManager tm2;
+    DataManager dm2;                // 崩溃后恢复出的实例
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("recover").toFile();
+        path = new File(dir, "t").getPath();
+        tm = TransactionManager.create(path);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if(dm2 != null) {
+            dm2.close();
+            tm2.close();
+        }
+        delete(dir);
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if(children != null) {
+            for(File c : children) delete(c);
+        }
+        f.delete();
+    }
+
+    // 与 DataManager.create 相同，但不启动检查点线程，恢复只依赖日志
+    private DataManagerImpl create(long mem) {
+        PageCache pc = PageCache.create(path, mem);
+        Logger lg = Logger.create(path);
+        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
+        dm.initPageOne();
+        return dm;
+    }
+
+    /**
+     * 模拟崩溃：不关闭 dm，把待写队列和日志刷盘后，将文件拷到另一个目录再打开
+     * 仍在缓存中的脏页没有进入队列，拷贝期间不会被写出，崩溃时的状态只取决于这里的刷盘
+     * 先拷数据文件再拷日志，数据页写出前日志已经落盘，拷到的日志不会比数据页旧
+     */
+    private DataManager crashAndOpen(long mem) throws Exception {
+        dm.pc.flush();
+        dm.logger.flush();
+        File crash = new File(dir, "crash");
+        crash.mkdir();
+        List<File> files = new ArrayList<>(Arrays.asList(dir.listFiles((d, name) -> name.startsWith("t."))));
+        files.sort((a, b) -> Boolean.compare(a.getName().contains(".log"), b.getName().contains(".log")));
+        for(File f : files) {
+            Files.copy(f.toPath(), new File(crash, f.getName()).toPath());
+        }
+        String crashPath = new File(crash, "t").getPath();
+        tm2 = TransactionManager.open(crashPath);
+        dm2 = DataManager.open(crashPath, mem, tm2);
+        return dm2;
+    }
+
+    private static byte[] row(long xid, int i, int length) {
+        byte[] raw = new byte[length];
+        for(int k = 0; k < length; k ++) {
+            raw[k] = (byte)(xid * 7 + i * 13 + k);
+        }
+        return raw;
+    }
+
+    private static void assertRow(DataManager dm, long uid, byte[] expected) throws Exception {
+        DataItem di = dm.read(uid);
+        assertNotNull(di);
+        SubArray data = di.data();
+        assertArrayEquals(expected, Arrays.copyOfRange(data.raw, data.start, data.end));
+        di.release();
+    }
+
+    private void commit(long xid) {
+        dm.logCommit(xid);
+        tm.commit(xid);
+    }
+
+    @Test
+    public void testCommitLogDecidesAfterCrash() throws Exception {
+        dm = create(MEM);
+        long x1 = tm.begin();
+        long[] committed = new long[50];
+        for(int i = 0; i < committed.length; i ++) {
+            committed[i] = dm.insert(x1, row(x1, i, 40));
+        }
+        // 提交日志落盘后、XID 文件更新前崩溃
+        dm.logCommit(x1);
+        long x2 = tm.begin();
+        long[] loser = new long[10];
+        for(int i = 0; i < loser.length; i ++) {
+            loser[i] = dm.insert(x2, row(x2, i, 40));
+        }
+        // x3 的提交把 x2 的日志一并刷盘，x2 没有提交日志
+        long x3 = tm.begin();
+        long last = dm.insert(x3, row(x3, 0, 40));
+        commit(x3);
+
+        DataManager dm2 = crashAndOpen(MEM);
+        // 恢复以提交日志为准补上 x1 的提交状态
+        assertTrue(tm2.isCommitted(x1));
+        assertTrue(tm2.isCommitted(x3));
+        assertTrue(tm2.isAborted(x2));
+        for(int i = 0; i < committed.length; i ++) {
+            assertRow(dm2, committed[i], row(x1, i, 40));
+        }
+        for(long uid : loser) {
+            assertNull(dm2.read(uid));
+        }
+        assertRow(dm2, last, row(x3, 0, 40));
+    }
+
+    @Test
+    public void testReplayAcrossSegments() throws Exception {
+        // 缓存只有 512 页，大部分页面在崩溃前被驱逐写出
+        long mem = 512L * PageCache.PAGE_SIZE;
+        dm = create(mem);
+        Random random = new Random(14);
+        List<Long> uids = new ArrayList<>();
+        List<byte[]> rows = new ArrayList<>();
+        // 随机内容不压缩，日志从第一个 16MB 的段写到第二个段
+        while(dm.logger.nextLsn() < 2L * (16 << 20) + (4 << 20)) {
+            long xid = tm.begin();
+            for(int i = 0; i < 100; i ++) {
+                byte[] raw = new byte[3000];
+                random.nextBytes(raw);
+                uids.add(dm.insert(xid, raw));
+                rows.add(raw);
+            }
+            commit(xid);
+        }
+        long loser = tm.begin();
+        long lost = dm.insert(loser, rows.get(0));
+        dm.logger.flush();
+
+        DataManager dm2 = crashAndOpen(mem);
+        for(int i = 0; i < uids.size(); i ++) {
+            assertRow(dm2, uids.get(i), rows.get(i));
+        }
+        assertNull(dm2.read(lost));
+    }
+
+    @Test
+    public void testCompressedInsertReplay() throws Exception {
+        dm = create(MEM);
+        long x1 = tm.begin();
+        byte[][] rows = new byte[60][];
+        long[] uids = new long[rows.length];
+        Random random = new Random(18);
+        long before = dm.logger.nextLsn();
+        for(int i = 0; i < 20; i ++) {
+            // 有规律的长数据写压缩的插入日志
+            rows[i] = row(x1, i, 1000);
+            uids[i] = dm.insert(x1, rows[i]);
+        }
+        assertTrue(dm.logger.nextLsn() - before < 20 * 1000 / 2);
+        for(int i = 20; i < 40; i ++) {
+            // 压缩后不更短的数据和短数据写原样的插入日志
+            rows[i] = new byte[i < 30 ? 1000 : 100];
+            random.nextBytes(rows[i]);
+            uids[i] = dm.insert(x1, rows[i]);
+        }
+        dm.logCommit(x1);
+        long x2 = tm.begin();
+        for(int i = 40; i < rows.length; i ++) {
+            rows[i] = row(x2, i, 1000);
+            uids[i] = dm.insert(x2, rows[i]);
+        }
+        dm.logger.flush();
+
+        DataManager dm2 = crashAndOpen(MEM);
+        for(int i = 0; i < 40; i ++) {
+            assertRow(dm2, uids[i], rows[i]);
+        }
+        // 未提交事务的压缩插入解压后再 undo
+        for(int i = 40; i < rows.length; i ++) {
+            assertNull(dm2.read(uids[i]));
+        }
+    }
+
+    @Test
+    public void testTruncateReplay() throws Exception {
+        dm = create(MEM);
+        long x1 = tm.begin();
+        long[] kept = new long[10];
+        for(int i = 0; i < kept.length; i ++) {
+            kept[i] = dm.insert(x1, row(x1, i, 50));
+        }
+        long x2 = tm.begin();
+        long[] dead = new long[5];
+        for(int i = 0; i < dead.length; i ++) {
+            dead[i] = dm.insert(x2, row(x2, i, 200));
+        }
+        commit(x1);
+        commit(x2);
+        // 页面末尾的数据项被物理删除并回收，空间由之后更短的数据项复用
+        for(long uid : dead) {
+            dm.physicalDelete(uid);
+        }
+        dm.reclaim(dm.takeDeletedPages());
+        long x3 = tm.begin();
+        long[] reused = new long[3];
+        for(int i = 0; i < reused.length; i ++) {
+            reused[i] = dm.insert(x3, row(x3, i, 30));
+        }
+        assertEquals(dead[0], reused[0]);
+        commit(x3);
+
+        DataManager dm2 = crashAndOpen(MEM);
+        for(int i = 0; i < kept.length; i ++) {
+            assertRow(dm2, kept[i], row(x1, i, 50));
+        }
+        for(int i = 0; i < reused.length; i ++) {
+            assertRow(dm2, reused[i], row(x3, i, 30));
+        }
+        // 重放截断日志后空闲位置退回到最后一个数据项之后，新数据紧接着插入
+        long x4 = tm2.begin();
+        long uid = dm2.insert(x4, row(x4, 0, 30));
+        long last = reused[reused.length - 1];
+        assertEquals(last + DataItem.wrapDataItemRaw(row(x3, 0, 30)).length, uid);
+    }
+}
@@ -0,0 +1,251 @@
+package com.peng.minidb.backend.dm.logger;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.peng.minidb.backend.common.SubArray;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LoggerTest {
+    File dir;
+    String path;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("logger").toFile();
+        path = new File(dir, "t").getPath();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for(File f : dir.listFiles()) f.delete();
+        dir.delete();
+    }
+
+    // 第 thread 个线程写的第 seq 条日志，长度随 seq 变化
+    private static byte[] record(int thread, int seq) {
+        ByteBuffer buf = ByteBuffer.allocate(8 + seq % 97);
+        buf.putInt(thread).putInt(seq);
+        while(buf.hasRemaining()) {
+            buf.put((byte)(thread * 31 + seq));
+        }
+        return buf.array();
+    }
+
+    private static List<byte[]> readAll(Logger lg) {
+        List<byte[]> res = new ArrayList<>();
+        lg.rewind();
+        byte[] log;
+        while((log = lg.next()) != null) {
+            res.add(log);
+        }
+        return res;
+    }
+
+    @Test
+    public void testGroupCommitRoundTrip() throws Exception {
+        final int threads = 8, n = 2000;
+        Logger lg = Logger.create(path);
+        long start = lg.nextLsn();
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; t ++) {
+            final int id = t;
+            ts[t] = new Thread(() -> {
+                for (int i = 0; i < n; i ++) {
+                    lg.log(record(id, i));
+                    // 模拟提交，flush 返回前此前的日志都已落盘
+                    if(i % 10 == 9) {
+                        lg.flush();
+                    }
+                }
+            });
+            ts[t].start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+        long end = lg.nextLsn();
+        lg.close();
+
+        Logger reopened = Logger.open(path);
+        assertEquals(end, reopened.nextLsn());
+        List<byte[]> logs = readAll(reopened);
+        assertEquals(threads * n, logs.size());
+        // 每个线程的日志都在，且保持追加顺序
+        int[] next = new int[threads];
+        long bytes = 0;
+        for (byte[] log : logs) {
+            ByteBuffer buf = ByteBuffer.wrap(log);
+            int id = buf.getInt(), seq = buf.getInt();
+            assertEquals(next[id], seq);
+            assertArrayEquals(record(id, seq), log);
+            next[id] ++;
+            bytes += LoggerImpl.OF_DATA + log.length;
+        }
+        assertEquals(end - start, bytes);
+        reopened.close();
+    }
+
+    @Test
+    public void testReaderPositionsAreLsns() throws Exception {
+        Logger lg = Logger.create(path);
+        long[] lsns = new long[100];
+        for (int i = 0; i < lsns.length; i ++) {
+            lsns[i] = lg.log(record(0, i));
+        }
+        lg.close();
+
+        lg = Logger.open(path);
+        LogReader reader = lg.reader();
+        for (int i = 0; i < lsns.length; i ++) {
+            assertEquals(lsns[i], reader.position());
+            SubArray log = reader.next();
+            assertArrayEquals(record(0, i), Arrays.copyOfRange(log.raw, log.start, log.end));
+        }
+        assertNull(reader.next());
+        // 从中间的 LSN 开始读
+        lg.seek(lsns[60]);
+        assertArrayEquals(record(0, 60), lg.next());
+        assertTrue(lg.reader(lsns[99]).next() != null);
+        lg.close();
+    }
+
+    // 改写 lsn 处日志的第 off 个字节
+    private void corrupt(long lsn, int off) throws Exception {
+        File seg = new File(String.format("%s%s.%010d", path, LoggerImpl.LOG_SUFFIX, lsn / LogSegments.SEGMENT_SIZE));
+        try(RandomAccessFile raf = new RandomAccessFile(seg, "rw")) {
+            long pos = lsn % LogSegments.SEGMENT_SIZE + off;
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 0x40);
+        }
+    }
+
+    @Test
+    public void testCorruptRecordEndsLog() throws Exception {
+        Logger lg = Logger.create(path);
+        long[] lsns = new long[100];
+        for (int i = 0; i < lsns.length; i ++) {
+            lsns[i] = lg.log(record(0, i));
+        }
+        lg.close();
+        corrupt(lsns[50], LoggerImpl.OF_DATA + 20);
+
+        // 校验失败的日志及其之后的部分都被截掉
+        lg = Logger.open(path);
+        List<byte[]> logs = readAll(lg);
+        assertEquals(50, logs.size());
+        assertArrayEquals(record(0, 49), logs.get(49));
+        assertEquals(lsns[50], lg.nextLsn());
+        // 新日志与被截掉的日志等长，之后的旧日志若未清除就会重新对上 LSN 和校验
+        byte[] replaced = record(1, 50);
+        assertEquals(lsns[50], lg.log(replaced));
+        lg.close();
+
+        lg = Logger.open(path);
+        logs = readAll(lg);
+        assertEquals(51, logs.size());
+        assertArrayEquals(replaced, logs.get(50));
+        assertEquals(lsns[51], lg.nextLsn());
+        lg.close();
+    }
+
+    @Test
+    public void testCorruptHeaderEndsLog() throws Exception {
+        // Size、Checksum、LSN 任何一个字节损坏都读不出这条日志
+        int[] offsets = {LoggerImpl.OF_SIZE + 3, LoggerImpl.OF_CHECKSUM, LoggerImpl.OF_LSN + 7};
+        for (int k = 0; k < offsets.length; k ++) {
+            path = new File(dir, "h" + k).getPath();
+            Logger lg = Logger.create(path);
+            long[] lsns = new long[10];
+            for (int i = 0; i < lsns.length; i ++) {
+                lsns[i] = lg.log(record(0, i));
+            }
+            lg.close();
+            corrupt(lsns[3], offsets[k]);
+
+            lg = Logger.open(path);
+            assertEquals(3, readAll(lg).size());
+            assertEquals(lsns[3], lg.nextLsn());
+            assertNull(lg.reader(lsns[4]).next());
+            lg.close();
+        }
+    }
+
+    // 64KB 的日志，跨段时会被切成两部分写入
+    private static byte[] big(int seq) {
+        byte[] raw = new byte[64 << 10];
+        for (int k = 0; k < raw.length; k ++) {
+            raw[k] = (byte)(seq * 31 + k * 7 + (k >>> 9));
+        }
+        ByteBuffer.wrap(raw).putInt(seq);
+        return raw;
+    }
+
+    private File segmentFile(long segno) {
+        return new File(String.format("%s%s.%010d", path, LoggerImpl.LOG_SUFFIX, segno));
+    }
+
+    @Test
+    public void testRolloverAcrossSegments() throws Exception {
+        Logger lg = Logger.create(path);
+        List<Long> lsns = new ArrayList<>();
+        while(lg.nextLsn() < 3L * LogSegments.SEGMENT_SIZE + LogSegments.SEGMENT_SIZE / 2) {
+            lsns.add(lg.log(big(lsns.size())));
+        }
+        lg.flush();
+        Map<String, Object> out = new HashMap<>();
+        lg.status(out);
+        assertTrue((Integer)out.get("log.segments") >= 3);
+        lg.close();
+
+        // 重新打开后所有日志都能读出，包括跨越段边界的日志
+        lg = Logger.open(path);
+        List<byte[]> logs = readAll(lg);
+        assertEquals(lsns.size(), logs.size());
+        for (int i = 0; i < logs.size(); i ++) {
+            assertArrayEquals(big(i), logs.get(i));
+        }
+
+        // 回收第 3 段之前的日志，第 1、2 段被改名复用或删除
+        int keep = 0;
+        while(lsns.get(keep) < 3L * LogSegments.SEGMENT_SIZE) {
+            keep ++;
+        }
+        lg.removeBefore(lsns.get(keep));
+        assertFalse(segmentFile(1).exists());
+        assertFalse(segmentFile(2).exists());
+        long tail = lg.nextLsn();
+        byte[] extra = big(lsns.size());
+        assertEquals(tail, lg.log(extra));
+        lg.close();
+
+        // 清单中记下了新的起点，复用的段中残留的旧日志不会被读出
+        lg = Logger.open(path);
+        logs = readAll(lg);
+        assertEquals(lsns.size() - keep + 1, logs.size());
+        for (int i = keep; i < lsns.size(); i ++) {
+            assertArrayEquals(big(i), logs.get(i - keep));
+        }
+        assertArrayEquals(extra, logs.get(logs.size() - 1));
+        assertEquals(lsns.get(keep).longValue(), lg.reader().position());
+        lg.close();
+    }
+}
@@ -0,0 +1,107 @@
+package com.peng.minidb.backend.dm.pageCache;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.peng.minidb.backend.dm.logger.Logger;
+import com.peng.minidb.backend.dm.page.Page;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PageCacheTest {
+    File dir;
+    PageCacheImpl pc;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("pagecache").toFile();
+        pc = PageCache.create(new File(dir, "t").getPath(), 64L * PageCache.PAGE_SIZE);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pc.close();
+        for(File f : dir.listFiles()) f.delete();
+        dir.delete();
+    }
+
+    private static byte[] page(int pgno) {
+        byte[] raw = new byte[PageCache.PAGE_SIZE];
+        ByteBuffer.wrap(raw).putInt(pgno).putInt(raw.length - 4, ~pgno);
+        return raw;
+    }
+
+    @Test
+    public void testNewPagesNotShadowedByReadAhead() throws Exception {
+        // 新页面依次缺页会触发顺序预读，预读线程可能在页号分配后立即读取新页面，
+        // 读到的必须是初始内容，而不是文件末尾之后的 0
+        for(int i = 1; i <= 30000; i ++) {
+            int pgno = pc.newPage(page(i));
+            assertEquals(i, pgno);
+            Page pg = pc.getPage(pgno);
+            ByteBuffer buf = ByteBuffer.wrap(pg.getData());
+            assertEquals(pgno, buf.getInt(0));
+            assertEquals(~pgno, buf.getInt(PageCache.PAGE_SIZE - 4));
+            pg.release();
+        }
+    }
+
+    @Test
+    public void testQueueDirtyNeverFlushesInline() throws Exception {
+        // 缓存 64 页，待写队列上限也是 64，先让全部缓存页变脏
+        for(int i = 1; i <= 64; i ++) {
+            pc.newPage(page(i));
+        }
+        pc.flush();
+        for(int i = 1; i <= 64; i ++) {
+            Page pg = pc.getPage(i);
+            pg.getData()[8] = 1;
+            pg.setDirty(true);
+            pg.release();
+        }
+
+        // 后台线程刷页时卡在刷日志上，并持有 flushLock
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        pc.setLogger((Logger) Proxy.newProxyInstance(Logger.class.getClassLoader(), new Class<?>[]{Logger.class}, (proxy, method, args) -> {
+            if(method.getName().equals("flush")) {
+                entered.countDown();
+                release.await();
+            }
+            return null;
+        }));
+        pc.newPage(page(65));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        // 队列超过上限，queueDirty 若同步刷盘就会等 flushLock 而卡住
+        ExecutorService ex = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> queued = ex.submit(() -> pc.queueDirty());
+            assertEquals(64, (int) queued.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            ex.shutdown();
+        }
+
+        pc.flush();
+        for(int i = 1; i <= 64; i ++) {
+            Page pg = pc.getPage(i);
+            assertEquals(1, pg.getData()[8]);
+            assertFalse(pg.isDirty());
+            pg.release();
+        }
+    }
+}
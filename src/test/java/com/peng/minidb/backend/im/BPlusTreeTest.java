@@ -0,0 +1,65 @@
+package com.peng.minidb.backend.im;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.peng.minidb.backend.dm.DataManager;
+import com.peng.minidb.backend.tm.TransactionManager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class BPlusTreeTest {
+    File dir;
+    TransactionManager tm;
+    DataManager dm;
+    BPlusTree tree;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("bptree").toFile();
+        String path = new File(dir, "t").getPath();
+        tm = TransactionManager.create(path);
+        dm = DataManager.create(path, 1 << 20, tm);
+        tree = BPlusTree.load(BPlusTree.create(dm), dm);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dm.close();
+        tm.close();
+        for(File f : dir.listFiles()) f.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testDuplicateKeysAcrossSplits() throws Exception {
+        // 同一个键反复插入，分裂后与分界相同的键留在左右两边
+        List<Long> expected = new ArrayList<>();
+        for(long uid = 1; uid <= 500; uid ++) {
+            tree.insert(uid % 5 == 0 ? 3 : 7, uid);
+            if(uid % 5 != 0) expected.add(uid);
+        }
+        List<Long> uids = tree.search(7);
+        Collections.sort(uids);
+        assertEquals(expected, uids);
+        assertEquals(100, tree.search(3).size());
+        assertEquals(500, tree.searchRange(Long.MIN_VALUE, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testSearchRange() throws Exception {
+        for(long k = -1000; k < 1000; k ++) {
+            tree.insert(k, k + 5000);
+        }
+        assertEquals(2000, tree.searchRange(Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(11, tree.searchRange(-5, 5).size());
+        assertEquals(Collections.singletonList(4999L), tree.search(-1));
+    }
+}
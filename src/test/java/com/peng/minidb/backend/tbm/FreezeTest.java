@@ -0,0 +1,109 @@
+package com.peng.minidb.backend.tbm;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.peng.minidb.backend.dm.DataManager;
+import com.peng.minidb.backend.parser.Parser;
+import com.peng.minidb.backend.parser.statement.*;
+import com.peng.minidb.backend.tm.TransactionManager;
+import com.peng.minidb.backend.vm.VersionManager;
+import com.peng.minidb.backend.vm.VersionManagerImpl;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FreezeTest {
+    File dir;
+    TransactionManager tm;
+    DataManager dm;
+    TableManager tbm;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("freeze").toFile();
+        String path = new File(dir, "t").getPath();
+        tm = TransactionManager.create(path);
+        dm = DataManager.create(path, 1 << 20, tm);
+        VersionManager vm = new VersionManagerImpl(tm, dm);
+        tbm = TableManager.create(path, vm, dm);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dm.close();
+        tm.close();
+        for(File f : dir.listFiles()) f.delete();
+        dir.delete();
+    }
+
+    private String exec(long xid, String sql) throws Exception {
+        Object stat = Parser.Parse(sql.getBytes());
+        byte[] res = null;
+        if(stat instanceof Create) {
+            res = tbm.create(xid, (Create) stat);
+        } else if(stat instanceof InsertObj) {
+            res = tbm.insert(xid, (InsertObj) stat);
+        } else if(stat instanceof SelectObj) {
+            res = tbm.read(xid, (SelectObj) stat);
+        } else if(stat instanceof DeleteObj) {
+            res = tbm.delete(xid, (DeleteObj) stat);
+        }
+        return new String(res);
+    }
+
+    private String autoCommit(String sql) throws Exception {
+        long xid = tbm.begin(new Begin()).xid;
+        String res = exec(xid, sql);
+        tbm.commit(xid);
+        return res;
+    }
+
+    private void aborted(String sql) throws Exception {
+        long xid = tbm.begin(new Begin()).xid;
+        exec(xid, sql);
+        tbm.abort(xid);
+    }
+
+    @Test
+    public void testAbortedNegativeKeyStaysInvisible() throws Exception {
+        autoCommit("create table t (id int primary key, name string)");
+        autoCommit("insert into t values (-7, 'kept')");
+        aborted("insert into t values (-5, 'ghost')");
+        autoCommit("insert into t values (-9, 'gone')");
+        autoCommit("delete from t where id = -9");
+
+        tbm.freeze();
+
+        assertFalse(autoCommit("select * from t where id = -5").contains("ghost"));
+        assertFalse(autoCommit("select * from t where id = -9").contains("gone"));
+        assertTrue(autoCommit("select * from t where id = -7").contains("kept"));
+        String all = autoCommit("select * from t");
+        assertTrue(all.contains("kept"));
+        assertFalse(all.contains("ghost"));
+        assertFalse(all.contains("gone"));
+    }
+
+    @Test
+    public void testAbortedHashedKeyStaysInvisible() throws Exception {
+        // 字符串主键按哈希值建索引，大多数哈希值不在 [0, Integer.MAX_VALUE] 内
+        autoCommit("create table s (name string primary key, v int)");
+        for(int i = 0; i < 20; i ++) {
+            autoCommit("insert into s values ('kept" + i + "', 1)");
+            aborted("insert into s values ('ghost" + i + "', 2)");
+        }
+
+        tbm.freeze();
+
+        String all = autoCommit("select * from s");
+        for(int i = 0; i < 20; i ++) {
+            assertTrue(all.contains("|kept" + i + " ") || all.contains("|kept" + i + "|"), "kept" + i);
+            assertFalse(autoCommit("select * from s where name = 'ghost" + i + "'").contains("ghost"), "ghost" + i);
+        }
+        assertFalse(all.contains("ghost"));
+    }
+}
@@ -0,0 +1,113 @@
+package com.peng.minidb.backend.tbm;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.peng.minidb.backend.dm.DataManager;
+import com.peng.minidb.backend.parser.Parser;
+import com.peng.minidb.backend.parser.statement.*;
+import com.peng.minidb.backend.tm.TransactionManager;
+import com.peng.minidb.backend.vm.VersionManager;
+import com.peng.minidb.backend.vm.VersionManagerImpl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class VacuumTest {
+    File dir;
+    TransactionManager tm;
+    DataManager dm;
+    TableManager tbm;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("vacuum").toFile();
+        String path = new File(dir, "t").getPath();
+        tm = TransactionManager.create(path);
+        dm = DataManager.create(path, 1 << 20, tm);
+        VersionManager vm = new VersionManagerImpl(tm, dm);
+        tbm = TableManager.create(path, vm, dm);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dm.close();
+        tm.close();
+        for(File f : dir.listFiles()) f.delete();
+        dir.delete();
+    }
+
+    private String exec(long xid, String sql) throws Exception {
+        Object stat = Parser.Parse(sql.getBytes());
+        byte[] res = null;
+        if(stat instanceof Create) {
+            res = tbm.create(xid, (Create) stat);
+        } else if(stat instanceof InsertObj) {
+            res = tbm.insert(xid, (InsertObj) stat);
+        } else if(stat instanceof SelectObj) {
+            res = tbm.read(xid, (SelectObj) stat);
+        } else if(stat instanceof UpdateObj) {
+            res = tbm.update(xid, (UpdateObj) stat);
+        } else if(stat instanceof DeleteObj) {
+            res = tbm.delete(xid, (DeleteObj) stat);
+        }
+        return new String(res);
+    }
+
+    private String autoCommit(String sql) throws Exception {
+        long xid = tbm.begin(new Begin()).xid;
+        String res = exec(xid, sql);
+        tbm.commit(xid);
+        return res;
+    }
+
+    private long vacuumed() {
+        return (Long) tbm.status().get("vacuum.versions");
+    }
+
+    @Test
+    public void testVacuumNegativeKeys() throws Exception {
+        autoCommit("create table t (id int primary key, v string)");
+        for(int k = -1; k >= -20; k --) {
+            autoCommit("insert into t values (" + k + ", 'v0')");
+        }
+        for(int round = 1; round <= 3; round ++) {
+            for(int k = -1; k >= -20; k --) {
+                autoCommit("update t set v = 'v" + round + "' where id = " + k);
+            }
+        }
+        autoCommit("delete from t where id = -1");
+        long xid = tbm.begin(new Begin()).xid;
+        exec(xid, "insert into t values (-100, 'v9')");
+        tbm.abort(xid);
+
+        // 每行 3 个旧版本，加上删除的一行和回滚的插入
+        tbm.vacuum();
+        assertEquals(62, vacuumed());
+
+        // 第二轮回收上一轮删除的页面空间，没有新的死亡版本
+        tbm.vacuum();
+        assertEquals(62, vacuumed());
+
+        for(int k = -21; k >= -40; k --) {
+            autoCommit("insert into t values (" + k + ", 'v4')");
+        }
+        for(int k = -2; k >= -20; k --) {
+            String row = autoCommit("select * from t where id = " + k);
+            assertTrue(row.contains("|" + k + "|v3|"), row);
+        }
+        for(int k = -21; k >= -40; k --) {
+            String row = autoCommit("select * from t where id = " + k);
+            assertTrue(row.contains("|" + k + "|v4|"), row);
+        }
+        assertFalse(autoCommit("select * from t where id = -1").contains("|-1|"));
+        assertFalse(autoCommit("select * from t where id = -100").contains("|-100|"));
+        String all = autoCommit("select * from t");
+        assertEquals(39 + 4, all.split("\n").length);
+    }
+}
@@ -0,0 +1,87 @@
+package com.peng.minidb.backend.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LZ4Test {
+
+    // 压缩到 dst 的偏移 7 处再解压，返回压缩后的长度
+    private static int roundTrip(byte[] src) {
+        byte[] dst = new byte[7 + LZ4.maxCompressedLength(src.length)];
+        int length = LZ4.compress(src, 0, src.length, dst, 7);
+        assertTrue(length <= LZ4.maxCompressedLength(src.length));
+        byte[] out = new byte[src.length];
+        assertEquals(src.length, LZ4.decompress(dst, 7, length, out, 0, out.length));
+        assertArrayEquals(src, out);
+        return length;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(18);
+        for (int len : new int[]{0, 1, 4, 12, 13, 15, 16, 255, 256, 270, 4096, 8000, 70000}) {
+            byte[] noise = new byte[len];
+            random.nextBytes(noise);
+            roundTrip(noise);
+
+            // 长串相同字节，匹配与输出重叠，匹配长度需要多个扩展字节
+            byte[] run = new byte[len];
+            Arrays.fill(run, (byte)'a');
+            roundTrip(run);
+
+            // 字面量和匹配交替出现
+            byte[] mixed = new byte[len];
+            for (int i = 0; i < len; i ++) {
+                mixed[i] = (i / 40) % 3 == 0 ? (byte)random.nextInt() : (byte)(i % 17);
+            }
+            roundTrip(mixed);
+        }
+    }
+
+    @Test
+    public void testCompressesRepetitiveData() {
+        byte[] row = "order_customer_0042|shipped|".getBytes();
+        byte[] src = new byte[row.length * 100];
+        for (int i = 0; i < 100; i ++) {
+            System.arraycopy(row, 0, src, i * row.length, row.length);
+        }
+        assertTrue(roundTrip(src) < src.length / 10);
+    }
+
+    @Test
+    public void testCompressSubRange() {
+        byte[] src = "xxxxabcabcabcabcabcabcabcabcabcabcyyyy".getBytes();
+        byte[] dst = new byte[LZ4.maxCompressedLength(src.length)];
+        int length = LZ4.compress(src, 4, src.length - 8, dst, 0);
+        byte[] out = new byte[src.length - 8];
+        assertEquals(out.length, LZ4.decompress(dst, 0, length, out, 0, out.length));
+        assertArrayEquals(Arrays.copyOfRange(src, 4, src.length - 4), out);
+    }
+
+    @Test
+    public void testBadInputRejected() {
+        byte[] src = new byte[3000];
+        for (int i = 0; i < src.length; i ++) {
+            src[i] = (byte)(i % 50 < 10 ? i * 7 : i % 13);
+        }
+        byte[] dst = new byte[LZ4.maxCompressedLength(src.length)];
+        int length = LZ4.compress(src, 0, src.length, dst, 0);
+        byte[] out = new byte[src.length];
+        // 截断的输入不会越界，也不会被当成完整的数据
+        for (int n = 0; n < length; n ++) {
+            assertNotEquals(src.length, LZ4.decompress(dst, 0, n, out, 0, out.length));
+        }
+        // 输出空间不够
+        assertEquals(-1, LZ4.decompress(dst, 0, length, out, 0, out.length - 1));
+        // 匹配的偏移超出已输出的数据
+        byte[] bad = {0x10, 'a', 0x05, 0x00};
+        assertEquals(-1, LZ4.decompress(bad, 0, bad.length, new byte[16], 0, 16));
+    }
+}
@@ -0,0 +1,172 @@
+package com.peng.minidb.backend.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.peng.minidb.common.Error;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RWConflictTableTest {
+    static final long A = 100, B = 200;
+
+    RWConflictTable rw;
+
+    @BeforeEach
+    public void setUp() {
+        rw = new RWConflictTable();
+    }
+
+    private int stat(String key) {
+        Map<String, Object> out = new HashMap<>();
+        rw.status(out);
+        return (Integer) out.get(key);
+    }
+
+    private void commit(long xid) throws Exception {
+        rw.prepare(xid);
+        rw.commit(xid);
+    }
+
+    @Test
+    public void testCommittedRetainedWhileConcurrentRuns() throws Exception {
+        rw.begin(1);
+        rw.begin(2);
+        commit(2);
+        assertEquals(2, stat("ssi.tracked"));
+        assertEquals(1, stat("ssi.retained"));
+
+        // 3 在 2 提交之后开始，2 仍与运行中的 1 并发
+        rw.begin(3);
+        commit(3);
+        assertEquals(2, stat("ssi.retained"));
+
+        commit(1);
+        assertEquals(0, stat("ssi.tracked"));
+        assertEquals(0, stat("ssi.retained"));
+    }
+
+    @Test
+    public void testOldestRunningBoundsRetention() throws Exception {
+        rw.begin(1);
+        for(long xid = 2; xid <= 1000; xid ++) {
+            rw.begin(xid);
+            commit(xid);
+        }
+        assertEquals(999, stat("ssi.retained"));
+        rw.begin(2000);
+        rw.abort(1);
+        // 2000 开始时其余事务都已提交，不再与任何活跃事务并发
+        assertEquals(0, stat("ssi.retained"));
+        assertEquals(1, stat("ssi.tracked"));
+        rw.abort(2000);
+        assertEquals(0, stat("ssi.tracked"));
+    }
+
+    @Test
+    public void testWriteSkew() throws Exception {
+        rw.begin(1);
+        rw.begin(2);
+        rw.read(1, A, true, 0, 0);
+        rw.read(2, B, true, 0, 0);
+        rw.write(1, B);
+        commit(1);
+        Exception e = assertThrows(Exception.class, () -> {
+            rw.write(2, A);
+            rw.prepare(2);
+        });
+        assertSame(Error.SerializationFailureException, e);
+    }
+
+    @Test
+    public void testDisjointWrites() throws Exception {
+        rw.begin(1);
+        rw.begin(2);
+        rw.read(1, A, true, 0, 0);
+        rw.read(2, B, true, 0, 0);
+        rw.write(1, A);
+        rw.write(2, B);
+        commit(1);
+        commit(2);
+    }
+
+    // 1 -rw-> 2 -rw-> 3：1 读 A、2 写 A，2 读 B、3 写 B
+    private void chain() throws Exception {
+        rw.begin(1);
+        rw.begin(2);
+        rw.begin(3);
+        rw.read(1, A, true, 0, 0);
+        rw.read(2, B, true, 0, 0);
+        rw.write(2, A);
+        rw.write(3, B);
+    }
+
+    @Test
+    public void testPivotCommitsWhenOutConflictCommitsLast() throws Exception {
+        chain();
+        commit(1);
+        commit(2);
+        commit(3);
+    }
+
+    @Test
+    public void testPivotAbortsWhenOutConflictCommitsFirst() throws Exception {
+        chain();
+        commit(3);
+        Exception e = assertThrows(Exception.class, () -> rw.prepare(2));
+        assertSame(Error.SerializationFailureException, e);
+        rw.abort(2);
+        commit(1);
+    }
+
+    @Test
+    public void testReaderAbortsAfterPivotCommits() throws Exception {
+        chain();
+        commit(3);
+        // 2 读 B 时看不到 3 的删除，1 读 A 时看不到 2 的删除；3 最先提交，2 和 1 只能提交一个
+        Exception e = assertThrows(Exception.class, () -> {
+            rw.prepare(1);
+            rw.commit(1);
+            rw.prepare(2);
+        });
+        assertSame(Error.SerializationFailureException, e);
+    }
+
+    @Test
+    public void testOutConflictAbortsWhenPivotAlreadyPrepared() throws Exception {
+        chain();
+        rw.prepare(2);
+        // 2 已准备提交无法中止，3 先提交会构成危险结构，只能中止 3
+        Exception e = assertThrows(Exception.class, () -> rw.prepare(3));
+        assertSame(Error.SerializationFailureException, e);
+        rw.abort(3);
+        rw.commit(2);
+        commit(1);
+    }
+
+    @Test
+    public void testReadOnlyAnomaly() throws Exception {
+        // 2 读 A、B 后写 B，3 写 A 并先提交；只读的 1 在 3 提交后开始，读到 A 的新值和 B 的旧值
+        rw.begin(2);
+        rw.begin(3);
+        rw.read(2, A, true, 0, 0);
+        rw.read(2, B, true, 0, 0);
+        rw.write(3, A);
+        commit(3);
+        rw.begin(1);
+        rw.read(1, A, true, 0, 0);
+        rw.read(1, B, true, 0, 0);
+        Exception e = assertThrows(Exception.class, () -> {
+            rw.write(2, B);
+            rw.prepare(2);
+            rw.commit(2);
+            rw.prepare(1);
+        });
+        assertSame(Error.SerializationFailureException, e);
+    }
+}